@@ -1,17 +1,43 @@
 package edu.cwru.sepia.agent;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.action.ActionFeedback;
+import edu.cwru.sepia.action.ActionResult;
+import edu.cwru.sepia.action.ActionType;
+import edu.cwru.sepia.action.DirectedAction;
+import edu.cwru.sepia.action.LocatedAction;
+import edu.cwru.sepia.agent.astar.AnytimeAstar;
+import edu.cwru.sepia.agent.astar.BidirectionalAstar;
+import edu.cwru.sepia.agent.astar.ConnectedComponents;
+import edu.cwru.sepia.agent.astar.DStarLite;
+import edu.cwru.sepia.agent.astar.DistanceField;
+import edu.cwru.sepia.agent.astar.FlowFieldCache;
+import edu.cwru.sepia.agent.astar.GridAstar;
+import edu.cwru.sepia.agent.astar.HierarchicalPlanner;
+import edu.cwru.sepia.agent.astar.JumpPointSearch;
+import edu.cwru.sepia.agent.astar.LandmarkHeuristic;
+import edu.cwru.sepia.agent.astar.OpenList;
+import edu.cwru.sepia.agent.astar.ObstacleGrid;
+import edu.cwru.sepia.agent.astar.PackedPath;
+import edu.cwru.sepia.agent.astar.PathDatabase;
+import edu.cwru.sepia.agent.astar.PlannerMetrics;
+import edu.cwru.sepia.agent.astar.ReservationTable;
+import edu.cwru.sepia.agent.astar.SearchContext;
+import edu.cwru.sepia.agent.astar.SpaceTimeAstar;
+import edu.cwru.sepia.agent.astar.SubgoalGraph;
 import edu.cwru.sepia.environment.model.history.History;
 import edu.cwru.sepia.environment.model.state.ResourceNode;
 import edu.cwru.sepia.environment.model.state.State;
@@ -22,6 +48,126 @@ public class AstarAgent extends Agent {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * The search findPath uses. Chosen with the first agent argument in the config, e.g.
+	 * &lt;Argument&gt;jps&lt;/Argument&gt;, defaulting to plain A*. The second argument turns on
+	 * background planning and the optional third is a number some planners use (see each mode).
+	 */
+	enum PlannerMode {
+		// A* over every neighbour
+		ASTAR,
+		// Jump Point Search, same paths with far fewer expansions on open maps
+		JPS,
+		// A* from the footman and from the townhall at once, meeting somewhere in between
+		BIDIR,
+		// A* with the landmark (ALT) heuristic, the parameter is the number of landmarks (default 8)
+		ALT,
+		// Weighted A*, paths at most w times the shortest, the parameter is w (default 1.5)
+		WEIGHTED,
+		// Focal search, paths at most w times the shortest, the parameter is w (default 1.5)
+		FOCAL,
+		// First moves looked up in a precomputed path database (see PathDatabaseBuilder), A* if there is none
+		CPD,
+		// A* over a subgoal graph of the obstacle corners, built once per map and cached (see SubgoalGraph)
+		SUBGOAL,
+		// A* over (x, y, t) around the predicted enemy path, the parameter is the prediction horizon in turns (default 24)
+		SPACETIME,
+		// Windowed hierarchical cooperative A* moving every unit the player owns, the parameter is the window in turns (default 16)
+		WHCA,
+		// D* Lite, keeps its search tree between plans and only repairs what the enemy footman changed
+		DSTAR,
+		// Hierarchical A* over clusters, the parameter is the cluster width (default 10)
+		HPA,
+		// One distance field out from the townhall shared by every unit the player owns, each walks downhill one step per turn
+		FIELD,
+		// Anytime Repairing A*, the parameter is the planning budget per turn in nsecs (default 1ms)
+		ARA,
+		// A* spread over several turns, the parameter is the expansions per turn (default 256)
+		SLICED;
+
+		/**
+		 * @return true if the planner keeps state between plans that only the game thread may touch
+		 */
+		boolean keepsState() {
+			return this == DSTAR || this == HPA || this == FIELD || this == ARA || this == SLICED || this == CPD || this == SUBGOAL || this == SPACETIME || this == WHCA;
+		}
+
+		/**
+		 * @return true if the planner may return paths up to a bound longer than the shortest
+		 */
+		boolean isBounded() {
+			return this == WEIGHTED || this == FOCAL;
+		}
+	}
+
+	/**
+	 * Why a path was given up on, counted in the metrics.
+	 */
+	enum ReplanReason {
+		// The enemy footman moved and is closer to the townhall than ours
+		ENEMY_CLOSER,
+		// The enemy footman is on the next few steps of the path
+		ENEMY_ON_PATH,
+		// A unit is not where its space-time or cooperative plan has it
+		OFF_PLAN,
+		// The enemy footman is not where it was predicted to be
+		ENEMY_OFF_PREDICTION,
+		// Half of the cooperative window has been walked
+		WINDOW_ELAPSED
+	}
+
+	// Number of abstract HPA segments turned into steps at a time
+	private static final int HPA_SEGMENTS_AHEAD = 2;
+
+	// ARA* starts with the heuristic weighted this much and lowers it by the step after every path
+	private static final double ARA_INITIAL_EPSILON = 3.0;
+	private static final double ARA_EPSILON_STEP = 0.5;
+	private static final long ARA_DEFAULT_BUDGET = 1000000; // nsecs
+
+	private static final int SLICED_DEFAULT_EXPANSIONS = 256;
+
+	// How many times the shortest path WEIGHTED and FOCAL paths may be
+	private static final double BOUNDED_DEFAULT_W = 1.5;
+
+	private static final int ALT_DEFAULT_LANDMARKS = 8;
+	// Landmark tables are kept here between runs, one file per map
+	private static final File LANDMARK_CACHE_DIRECTORY = new File("landmarks");
+	// Where PathDatabaseBuilder writes the path databases
+	private static final File PATH_DATABASE_DIRECTORY = new File("pathdb");
+	// Subgoal graphs are kept here between runs, one file per map
+	private static final File SUBGOAL_CACHE_DIRECTORY = new File("subgoals");
+
+	private static final int SPACETIME_DEFAULT_HORIZON = 24;
+	// How many turns back the enemy's history is searched for the move it is making
+	private static final int ENEMY_HISTORY_TURNS = 8;
+	private static final int WHCA_DEFAULT_WINDOW = 16;
+
+	// Most distance fields FIELD mode keeps at once, one per target
+	private static final int FIELD_CACHE_TARGETS = 4;
+
+	// Each episode's metrics are written here as JSON and added as a row to episodes.csv
+	private static final File METRICS_DIRECTORY = new File("metrics");
+
+	/**
+	 * A path planned in the background along with the enemy footman position version it was planned against.
+	 */
+	static class PlannedPath {
+		final int enemyVersion;
+		final PackedPath path;
+		final long planTime;
+		// how many times the shortest path it is at most and the nodes expanded to find it
+		final double achievedBound;
+		final int expansions;
+
+		PlannedPath(int enemyVersion, PackedPath path, long planTime, double achievedBound, int expansions) {
+			this.enemyVersion = enemyVersion;
+			this.path = path;
+			this.planTime = planTime;
+			this.achievedBound = achievedBound;
+			this.expansions = expansions;
+		}
+	}
+
 	class MapLocation
 	{
 		public int x, y;
@@ -64,7 +210,6 @@ public class AstarAgent extends Agent {
 		public int hashCode() {
 			final int prime = 31;
 			int result = 1;
-			result = prime * result + getOuterType().hashCode();
 			result = prime * result + x;
 			result = prime * result + y;
 			return result;
@@ -78,57 +223,171 @@ public class AstarAgent extends Agent {
 			if (getClass() != obj.getClass())
 				return false;
 			MapLocationWrapper other = (MapLocationWrapper) obj;
-			if (!getOuterType().equals(other.getOuterType()))
-				return false;
 			if (x != other.x)
 				return false;
 			if (y != other.y)
 				return false;
 			return true;
 		}
-		private AstarAgent getOuterType() {
-			return AstarAgent.this;
-		}
-	}
-
-	/**
-	 * A map location with associated cost estimate and a way to get the previous location.
-	 * 
-	 * @author Sarah Whelan
-	 *
-	 */
-	public class SearchNode {
-		public MapLocationWrapper location;
-		public SearchNode cameFrom;
-		public float cost;
-
-		public SearchNode(MapLocationWrapper location, SearchNode cameFrom, float cost)
-		{
-			this.location = location;
-			this.cameFrom = cameFrom;
-			this.cost = cost;
-		}
 	}
 
 	// The last known position of the enemyFootman
 	private MapLocationWrapper previousEnemyLocation; 
 
-	Stack<MapLocation> path;
-	int footmanID, townhallID, enemyFootmanID;
+	PackedPath path;
+	// Scratch space for the cells of the path when part of it is searched again
+	private int[] repairCells;
+	int footmanID, townhallID, enemyFootmanID, enemyPlayerNum;
 	MapLocation nextLoc;
 
+	private final PlannerMode plannerMode;
+	// The optional third agent argument or NaN
+	private final double plannerParameter;
+	// Whether the searches keep their open list in a bucket queue instead of a heap (fourth argument "bucket")
+	private final boolean bucketOpenList;
+
+	// Resources blocked once per episode with the enemy footman layered on top
+	private ObstacleGrid obstacleGrid;
+	// The cell the enemy footman is blocking in the obstacle grid
+	private int enemyCell = -1;
+
+	// Scratch space reused by every search on this map
+	private SearchContext searchContext;
+	private GridAstar gridAstar;
+	private JumpPointSearch jumpPointSearch;
+	private BidirectionalAstar bidirectionalAstar;
+	// Distances from a few landmarks for a heuristic that knows about walls, null unless in ALT mode
+	private LandmarkHeuristic landmarkHeuristic;
+	// Memory-mapped first move table for the current map, null if it has not been built
+	private PathDatabase pathDatabase;
+	// Obstacle corners of the static map and which of them can see each other, null unless in SUBGOAL mode
+	private SubgoalGraph subgoalGraph;
+
+	// Space-time planning: the enemy is predicted over the horizon and its cells are reserved
+	private SpaceTimeAstar spaceTimeAstar;
+	private ReservationTable reservations;
+	// Distances to where the enemy was last ordered to go, over the static map
+	private DistanceField enemyTargetField;
+	// The enemy's predicted cell for each turn since the plan was made
+	private int[] predictedEnemy;
+	// The footman's planned cell for each turn since the plan was made, and the turn it was made
+	private int[] plannedFootman;
+	private int plannedFootmanLength;
+	private int planTurn;
+
+	// Cooperative planning: every unit that can move (FIELD uses this too), its path and where it should be next turn
+	private int[] cooperativeUnits;
+	private PackedPath[] cooperativePaths;
+	private int[] expectedCells;
+	private int cooperativeWindow;
+	// Which unit plans first, moved along every window so no unit always has to give way
+	private int priorityOffset;
+	// Moves to the townhall over the static map, the heuristic for every unit's search
+	private DistanceField townhallDistance;
+	// Incremental planner that lives for the whole episode
+	private DStarLite dStarLite;
+	// Cluster graph built once from the obstacle grid and patched when obstacles change
+	private HierarchicalPlanner hierarchicalPlanner;
+	// Distance fields by target, built once and patched when obstacles change
+	private FlowFieldCache flowFields;
+	// The field towards the townhall, owned by flowFields
+	private DistanceField distanceField;
+	// cell -> the turn (plus one) a unit stands on it or is moving onto it, when several units share the field
+	private int[] claimedTurn;
+	// Open areas of the obstacle grid so a cut off townhall is spotted without searching
+	private ConnectedComponents components;
+	// Open areas of the resources alone, to tell a cut the enemy can move out of from one for good
+	private ConnectedComponents staticComponents;
+	// Anytime planner that is given a slice of every turn to improve its path
+	private AnytimeAstar anytimeAstar;
+	private long anytimeBudget;
+	// Whether anytimeAstar is working on a search that can still produce a path
+	private boolean anytimeSearching = false;
+	// Time-sliced A*: the search in searchContext towards slicedGoal carries over between turns
+	private int slicedExpansions;
+	private boolean slicedSearching;
+	private int slicedStart;
+	// Whether the last plan found the townhall cut off, so the message is only printed once
+	private boolean goalUnreachable = false;
+
+	// Background planning: replans run on planExecutor against their own copy of the obstacle grid
+	// and the finished path is handed back through publishedPath
+	private final boolean asyncPlanning;
+	private transient ExecutorService planExecutor;
+	private transient SearchContext asyncSearchContext;
+	private transient GridAstar asyncGridAstar;
+	private transient JumpPointSearch asyncJumpPointSearch;
+	private transient BidirectionalAstar asyncBidirectionalAstar;
+	private final AtomicReference<PlannedPath> publishedPath = new AtomicReference<PlannedPath>();
+	// Bumped every time the enemy footman changes cells so paths planned around an old position can be spotted
+	private int enemyVersion = 0;
+	// The enemy version of the replan currently running in the background or -1 if there is none
+	private int requestedEnemyVersion = -1;
+
+	// Plans made after the first one because the old path stopped working
+	private int replanCount = 0;
+	// Why shouldReplanPath last returned true
+	private ReplanReason replanReason;
+	// Search work, replans and planning latency for the current episode
+	private transient PlannerMetrics metrics;
+
 	private long totalPlanTime = 0; // nsecs
 	private long totalExecutionTime = 0; //nsecs
 
 	public AstarAgent(int playernum)
+	{
+		this(playernum, new String[0]);
+	}
+
+	public AstarAgent(int playernum, String[] args)
 	{
 		super(playernum);
 
-		System.out.println("Constructed AstarAgent");
+		PlannerMode mode = PlannerMode.ASTAR;
+		if(args.length >= 1) {
+			try {
+				mode = PlannerMode.valueOf(args[0].trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.err.println("Unknown planner " + args[0] + ". Defaulting to A*.");
+			}
+		}
+		plannerMode = mode;
+
+		boolean async = false;
+		if(args.length >= 2) {
+			async = Boolean.parseBoolean(args[1].trim());
+		}
+		if(async && plannerMode.keepsState()) {
+			System.err.println(plannerMode + " keeps its state on the game thread. Planning synchronously.");
+			async = false;
+		}
+		asyncPlanning = async;
+
+		double parameter = Double.NaN;
+		if(args.length >= 3) {
+			try {
+				parameter = Double.parseDouble(args[2].trim());
+			} catch (NumberFormatException e) {
+				System.err.println("Planner parameter " + args[2] + " is not a number. Using the default.");
+			}
+		}
+		plannerParameter = parameter;
+
+		boolean bucket = args.length >= 4 && args[3].trim().equalsIgnoreCase("bucket");
+		if(bucket && plannerMode == PlannerMode.WEIGHTED) {
+			System.err.println(plannerMode + " keys g + w * h in fixed point, too wide for a bucket queue. Using a heap.");
+			bucket = false;
+		}
+		bucketOpenList = bucket;
+
+		System.out.println("Constructed AstarAgent using " + plannerMode + (asyncPlanning ? " in the background" : "")
+				+ (bucketOpenList ? " with a bucket queue" : ""));
 	}
 
 	@Override
 	public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
+		metrics = newMetrics();
+
 		// get the footman location
 		List<Integer> unitIDs = newstate.getUnitIds(playernum);
 
@@ -149,7 +408,7 @@ public class AstarAgent extends Agent {
 
 		// find the enemy playernum
 		Integer[] playerNums = newstate.getPlayerNumbers();
-		int enemyPlayerNum = -1;
+		enemyPlayerNum = -1;
 		for(Integer playerNum : playerNums)
 		{
 			if(playerNum != playernum) {
@@ -198,36 +457,120 @@ public class AstarAgent extends Agent {
 			return null;
 		}
 
+		buildObstacleGrid(newstate);
+
+		if(plannerMode == PlannerMode.WHCA || plannerMode == PlannerMode.FIELD) {
+			List<Integer> movable = new ArrayList<Integer>();
+			for(Integer unitID : unitIDs) {
+				if(newstate.getUnit(unitID).getTemplateView().canMove()) {
+					movable.add(unitID);
+				}
+			}
+			cooperativeUnits = new int[movable.size()];
+			for(int i = 0; i < cooperativeUnits.length; i++) {
+				cooperativeUnits[i] = movable.get(i);
+			}
+		}
+		if(plannerMode == PlannerMode.WHCA || (plannerMode == PlannerMode.FIELD && cooperativeUnits.length > 1)) {
+			cooperativePaths = null;
+			expectedCells = new int[cooperativeUnits.length];
+			return middleStep(newstate, statehistory);
+		}
+
+		if(plannerMode == PlannerMode.ARA || plannerMode == PlannerMode.SLICED || plannerMode == PlannerMode.SPACETIME) {
+			// Planning starts in middleStep so the first turn stays within the budget too
+			return middleStep(newstate, statehistory);
+		}
+
+		if(asyncPlanning) {
+			// The footman waits for the first path instead of the first turn waiting for the search
+			requestPath(newstate);
+			return middleStep(newstate, statehistory);
+		}
+
 		long startTime = System.nanoTime();
 		path = findPath(newstate);
-		totalPlanTime += System.nanoTime() - startTime;
+		recordPlanTime(System.nanoTime() - startTime);
 
 		return middleStep(newstate, statehistory);
 	}
 
 	@Override
 	public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+		if(goalUnreachable && cutOffByResources(newstate)) {
+			// Waiting only helps when the enemy footman is what is in the way
+			terminalStep(newstate, statehistory);
+			return new HashMap<Integer, Action>();
+		}
+		if(plannerMode == PlannerMode.WHCA) {
+			return cooperativeStep(newstate, statehistory);
+		}
+		if(plannerMode == PlannerMode.FIELD && cooperativeUnits.length > 1) {
+			// A lone footman follows the field through the usual path handling below
+			return flowFieldStep(newstate, statehistory);
+		}
+
 		long startTime = System.nanoTime();
 		long planTime = 0;
 
 		Map<Integer, Action> actions = new HashMap<Integer, Action>();
 
-		if(shouldReplanPath(newstate, statehistory, path)) {
-			long planStartTime = System.nanoTime();
-			path = findPath(newstate);
-			planTime = System.nanoTime() - planStartTime;
-			totalPlanTime += planTime;
-		}
-
 		Unit.UnitView footmanUnit = newstate.getUnit(footmanID);
 
 		int footmanX = footmanUnit.getXPosition();
 		int footmanY = footmanUnit.getYPosition();
 
-		if(!path.empty() && (nextLoc == null || (footmanX == nextLoc.x && footmanY == nextLoc.y))) {
+		if(plannerMode == PlannerMode.HPA && path != null && path.isEmpty() && nextLoc != null && footmanX == nextLoc.x && footmanY == nextLoc.y) {
+			planTime += refineHierarchicalPath(newstate);
+		}
+
+		if(plannerMode == PlannerMode.FIELD) {
+			long planStartTime = System.nanoTime();
+			followDistanceField(newstate, footmanX, footmanY);
+			long fieldTime = System.nanoTime() - planStartTime;
+			planTime += fieldTime;
+			recordPlanTime(fieldTime);
+		} else if(plannerMode == PlannerMode.ARA) {
+			planTime += improveAnytimePath(newstate, statehistory, footmanX, footmanY);
+		} else if(plannerMode == PlannerMode.SLICED) {
+			planTime += continueSlicedSearch(newstate, statehistory, footmanX, footmanY);
+		} else if(plannerMode == PlannerMode.SPACETIME) {
+			planTime += followSpaceTimePlan(newstate, statehistory, footmanX, footmanY);
+		} else if(asyncPlanning) {
+			adoptPublishedPath(newstate, footmanX, footmanY);
+			if(path == null) {
+				if(requestedEnemyVersion == -1) {
+					// The townhall was cut off, check again in case the enemy moved out of the way
+					requestPath(newstate);
+				}
+			} else if(shouldReplanPath(newstate, statehistory, path)) {
+				countReplan(replanReason);
+				requestPath(newstate);
+			}
+		} else if(path == null || shouldReplanPath(newstate, statehistory, path)) {
+			if(path != null) {
+				countReplan(replanReason);
+			}
+			long planStartTime = System.nanoTime();
+			if(path == null || !repairPath(newstate, footmanX, footmanY)) {
+				path = findPath(newstate);
+			}
+			long replanTime = System.nanoTime() - planStartTime;
+			planTime += replanTime;
+			recordPlanTime(replanTime);
+		}
+
+		if(path == null) {
+			// No way to the townhall right now so wait for the enemy to move
+			totalExecutionTime += System.nanoTime() - startTime - planTime;
+			return actions;
+		}
+
+		if(!path.isEmpty() && (nextLoc == null || (footmanX == nextLoc.x && footmanY == nextLoc.y))) {
 
 			// stat moving to the next step in the path
-			nextLoc = path.pop();
+			int next = path.next();
+			nextLoc = new MapLocation(next % obstacleGrid.xExtent, next / obstacleGrid.xExtent, null, 0);
 
 			System.out.println("Moving to (" + nextLoc.x + ", " + nextLoc.y + ")");
 		}
@@ -241,6 +584,8 @@ public class AstarAgent extends Agent {
 			Direction nextDirection = getNextDirection(xDiff, yDiff);
 
 			actions.put(footmanID, Action.createPrimitiveMove(footmanID, nextDirection));
+		} else if(!path.isEmpty()) {
+			// The plan has the footman wait here this turn for the enemy to get out of the way
 		} else {
 			Unit.UnitView townhallUnit = newstate.getUnit(townhallID);
 
@@ -271,12 +616,105 @@ public class AstarAgent extends Agent {
 	@Override
 	public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
 		System.out.println("Total turns: " + newstate.getTurnNumber());
+		System.out.println("Total replans: " + replanCount);
 		System.out.println("Total planning time: " + totalPlanTime/1e9);
 		System.out.println("Total execution time: " + totalExecutionTime/1e9);
 		System.out.println("Total time: " + (totalExecutionTime + totalPlanTime)/1e9);		
+		writeMetrics(newstate);
 		System.exit(0);	
 	}
 
+	/**
+	 * Add a planning call to the planning time and the latency histogram.
+	 */
+	private void recordPlanTime(long planTime) {
+		totalPlanTime += planTime;
+		metrics.recordPlan(planTime);
+	}
+
+	private void countReplan(ReplanReason reason) {
+		replanCount++;
+		metrics.recordReplan(reason.name());
+	}
+
+	private static PlannerMetrics newMetrics() {
+		String[] reasons = new String[ReplanReason.values().length];
+		for(int i = 0; i < reasons.length; i++) {
+			reasons[i] = ReplanReason.values()[i].name();
+		}
+		return new PlannerMetrics(reasons);
+	}
+
+	/**
+	 * Collect the open list counts of every planner used this episode and write the metrics out.
+	 * The background planner may still be running, so its counts can be a search behind.
+	 */
+	private void writeMetrics(State.StateView state) {
+		if(searchContext == null) {
+			// initialStep gave up before anything was planned
+			return;
+		}
+		List<OpenList> openLists = new ArrayList<OpenList>();
+		openLists.add(searchContext.getOpen());
+		if(asyncSearchContext != null) {
+			openLists.add(asyncSearchContext.getOpen());
+		}
+		if(bidirectionalAstar != null) {
+			openLists.add(bidirectionalAstar.getForwardOpen());
+			openLists.add(bidirectionalAstar.getBackwardOpen());
+		}
+		if(asyncBidirectionalAstar != null) {
+			openLists.add(asyncBidirectionalAstar.getForwardOpen());
+			openLists.add(asyncBidirectionalAstar.getBackwardOpen());
+		}
+		if(dStarLite != null) {
+			openLists.add(dStarLite.getOpen());
+		}
+		if(hierarchicalPlanner != null) {
+			openLists.add(hierarchicalPlanner.getOpen());
+		}
+		if(flowFields != null) {
+			for(DistanceField field : flowFields.getFields()) {
+				openLists.add(field.getOpen());
+			}
+		}
+		if(anytimeAstar != null) {
+			openLists.add(anytimeAstar.getOpen());
+		}
+		if(spaceTimeAstar != null) {
+			openLists.add(spaceTimeAstar.getOpen());
+		}
+		if(subgoalGraph != null) {
+			openLists.add(subgoalGraph.getOpen());
+		}
+		for(OpenList open : openLists) {
+			metrics.addSearchCounts(open);
+		}
+		// Focal search takes its expansions off the focal list and only removes them from the open list
+		if(gridAstar.getFocal() != null) {
+			metrics.addExpanded(gridAstar.getFocal().getPollCount());
+		}
+		if(asyncGridAstar != null && asyncGridAstar.getFocal() != null) {
+			metrics.addExpanded(asyncGridAstar.getFocal().getPollCount());
+		}
+
+		metrics.setLabel("mode", plannerMode);
+		metrics.setLabel("async", asyncPlanning);
+		metrics.setLabel("openList", bucketOpenList ? "bucket" : "heap");
+		metrics.setLabel("bound", gridAstar.getBound());
+		metrics.setLabel("map", Long.toHexString(obstacleGrid.staticFingerprint()));
+		metrics.setLabel("width", obstacleGrid.xExtent);
+		metrics.setLabel("height", obstacleGrid.yExtent);
+		metrics.setLabel("turns", state.getTurnNumber());
+		String name = "episode-" + System.currentTimeMillis() + "-" + plannerMode.name().toLowerCase();
+		try {
+			metrics.writeJson(new File(METRICS_DIRECTORY, name + ".json"));
+			metrics.appendCsv(new File(METRICS_DIRECTORY, "episodes.csv"));
+		} catch (IOException e) {
+			System.err.println("Failed to write metrics to " + METRICS_DIRECTORY + ". Reason: " + e.getMessage());
+		}
+	}
+
 	@Override
 	public void savePlayerData(OutputStream os) {
 
@@ -299,7 +737,7 @@ public class AstarAgent extends Agent {
 	 * @param currentPath
 	 * @return true if the path to the goal should be recalculated false if the currentPath should still work
 	 */
-	private boolean shouldReplanPath(State.StateView state, History.HistoryView history, Stack<MapLocation> currentPath){   
+	private boolean shouldReplanPath(State.StateView state, History.HistoryView history, PackedPath currentPath){   
 		// Don't re-plan the path if nothing could have changed since it was first planned ie no enemy
 		Unit.UnitView enemy = state.getUnit(enemyFootmanID);
 		if(enemy == null){
@@ -310,9 +748,11 @@ public class AstarAgent extends Agent {
 		MapLocationWrapper enemyLocation = new MapLocationWrapper(enemy.getXPosition(), enemy.getYPosition());        
 		shouldReplan = hasEnemyMovementMattered(state, enemyLocation);
 		previousEnemyLocation = enemyLocation;
+		replanReason = ReplanReason.ENEMY_CLOSER;
 		if(!shouldReplan){
 			// Only check this if necessary ie we are not already re-planning and this might change our minds
 			shouldReplan = isEnemyInNextFewSteps(currentPath, enemyLocation);
+			replanReason = ReplanReason.ENEMY_ON_PATH;
 		}
 		return shouldReplan;
 	}
@@ -355,27 +795,149 @@ public class AstarAgent extends Agent {
 	 * @param enemyLocation
 	 * @return true if within a few steps the enemy is on the MapLocation false otherwise
 	 */
-	private boolean isEnemyInNextFewSteps(Stack<MapLocation> currentPath, MapLocationWrapper enemyLocation){
+	private boolean isEnemyInNextFewSteps(PackedPath currentPath, MapLocationWrapper enemyLocation){
 		boolean enemyOnPath = false;
 		int NUM_STEPS_AHEAD_TO_CHECK = 4; // the number that determines "the few"
+		int enemyCell = obstacleGrid.cellIndex(enemyLocation.x, enemyLocation.y);
 
-		// A stack to allow popping off the next few steps of the path 
-		Stack<MapLocation> tempStack = new Stack<MapLocation>();
-		for(int i = 0; i < NUM_STEPS_AHEAD_TO_CHECK; i++){
-			if(!currentPath.isEmpty()){
-				MapLocation stepInPath = currentPath.pop();
-				tempStack.push(stepInPath);
-				if(new MapLocationWrapper(stepInPath).equals(enemyLocation)){        		
-					enemyOnPath = true;
-				}
+		// Peek ahead, the steps stay on the path
+		for(int i = 0; i < NUM_STEPS_AHEAD_TO_CHECK && i < currentPath.remaining(); i++){
+			if(currentPath.peek(i) == enemyCell){
+				enemyOnPath = true;
+			}
+		}
+		return enemyOnPath;
+	}
+
+	/**
+	 * Re-search just the stretch of the path the enemy footman is standing on, from the footman to
+	 * the first step past the enemy, and keep the rest of the path. Only the search modes that plan
+	 * from scratch every time are repaired; the others already reuse their work between plans.
+	 *
+	 * @return false if the whole path should be planned again instead
+	 */
+	private boolean repairPath(State.StateView state, int footmanX, int footmanY){
+		int footmanCell = obstacleGrid.cellIndex(footmanX, footmanY);
+		if(plannerMode.keepsState() || path.currentCell() != footmanCell) {
+			return false;
+		}
+		updateEnemyOverlay(state);
+
+		int count = path.remainingCells(repairCells);
+		int blocked = 0;
+		while(blocked < count && !obstacleGrid.isBlocked(repairCells[blocked])) {
+			blocked++;
+		}
+		int rejoin = blocked;
+		while(rejoin < count && obstacleGrid.isBlocked(repairCells[rejoin])) {
+			rejoin++;
+		}
+		// Nothing in the way means the enemy moved off the path and may have opened a shorter way,
+		// and if the end of the path is in the way there is nothing to rejoin
+		if(blocked == count || rejoin == count || !components.isReachable(footmanCell, repairCells[rejoin])) {
+			return false;
+		}
+
+		MapLocation startLoc = new MapLocation(footmanX, footmanY, null, 0);
+		MapLocation rejoinLoc = new MapLocation(repairCells[rejoin] % obstacleGrid.xExtent, repairCells[rejoin] / obstacleGrid.xExtent, null, 0);
+		searchContext.beginSearch();
+		PackedPath detour = search(startLoc, rejoinLoc, gridAstar, jumpPointSearch, bidirectionalAstar);
+		if(detour == null) {
+			return false;
+		}
+		path.splice(rejoin, repairCells, detour.remainingCells(repairCells));
+		metrics.recordRepair();
+		metrics.recordPath(path.remaining());
+		if(plannerMode.isBounded()) {
+			metrics.recordBound(gridAstar.getAchievedBound(), searchContext.getExpansions());
+		}
+		return true;
+	}
+
+	/**
+	 * Hand a replan to the background planner. The footman keeps following the current path until
+	 * the result is published. Nothing is submitted if a replan for the same enemy position is
+	 * already running, or if the townhall is cut off in which case the footman stops.
+	 */
+	private void requestPath(State.StateView state)
+	{
+		updateEnemyOverlay(state);
+		if(requestedEnemyVersion == enemyVersion) {
+			return;
+		}
+
+		Unit.UnitView townhallUnit = state.getUnit(townhallID);
+		Unit.UnitView footmanUnit = state.getUnit(footmanID);
+		final MapLocation startLoc = new MapLocation(footmanUnit.getXPosition(), footmanUnit.getYPosition(), null, 0);
+		final MapLocation goalLoc = new MapLocation(townhallUnit.getXPosition(), townhallUnit.getYPosition(), null, 0);
+		if(!components.isReachable(obstacleGrid.cellIndex(startLoc.x, startLoc.y), obstacleGrid.cellIndex(goalLoc.x, goalLoc.y))) {
+			reportUnreachable(true);
+			path = null;
+			nextLoc = null;
+			return;
+		}
+		final int version = enemyVersion;
+		final int blockedCell = enemyCell;
+
+		requestedEnemyVersion = version;
+		planExecutor.execute(() -> {
+			long planStartTime = System.nanoTime();
+			ObstacleGrid grid = asyncSearchContext.getGrid();
+			grid.clearDynamic();
+			if(blockedCell != -1) {
+				grid.blockDynamic(blockedCell);
 			}
+			asyncSearchContext.beginSearch();
+			PackedPath planned = search(startLoc, goalLoc, asyncGridAstar, asyncJumpPointSearch, asyncBidirectionalAstar);
+			publishedPath.set(new PlannedPath(version, planned, System.nanoTime() - planStartTime,
+					asyncGridAstar.getAchievedBound(), asyncSearchContext.getExpansions()));
+		});
+	}
+
+	/**
+	 * Swap in the latest path from the background planner if there is one. Paths planned against an
+	 * enemy position that has since changed are thrown away and planned again. Steps the footman
+	 * has already taken since the replan was requested are dropped from the front.
+	 */
+	private void adoptPublishedPath(State.StateView state, int footmanX, int footmanY)
+	{
+		PlannedPath planned = publishedPath.getAndSet(null);
+		if(planned == null) {
+			return;
+		}
+		recordPlanTime(planned.planTime);
+		if(requestedEnemyVersion == planned.enemyVersion) {
+			requestedEnemyVersion = -1;
 		}
 
-		// Push the steps that were popped in checking back onto the path
-		while(!tempStack.isEmpty()){
-			currentPath.push(tempStack.pop());
+		updateEnemyOverlay(state);
+		if(planned.enemyVersion != enemyVersion) {
+			requestPath(state);
+			return;
+		}
+
+		PackedPath newPath = planned.path;
+		reportUnreachable(newPath == null);
+		if(newPath == null) {
+			path = null;
+			nextLoc = null;
+			return;
+		}
+		// The footman may already be part way along the new path
+		newPath.advancePast(obstacleGrid.cellIndex(footmanX, footmanY));
+		if(!newPath.isEmpty() && (Math.abs(newPath.peek(0) % obstacleGrid.xExtent - footmanX) > 1
+				|| Math.abs(newPath.peek(0) / obstacleGrid.xExtent - footmanY) > 1)) {
+			// The footman wandered off the new path while it was being planned
+			requestPath(state);
+			return;
+		}
+
+		path = newPath;
+		nextLoc = null;
+		metrics.recordPath(path.remaining());
+		if(plannerMode.isBounded()) {
+			metrics.recordBound(planned.achievedBound, planned.expansions);
 		}
-		return enemyOnPath;
 	}
 
 	/**
@@ -383,9 +945,9 @@ public class AstarAgent extends Agent {
 	 * how to find units and resources in Sepia.
 	 *
 	 * @param state
-	 * @return
+	 * @return the path or null if the townhall can not be reached right now
 	 */
-	private Stack<MapLocation> findPath(State.StateView state)
+	private PackedPath findPath(State.StateView state)
 	{
 		Unit.UnitView townhallUnit = state.getUnit(townhallID);
 		Unit.UnitView footmanUnit = state.getUnit(footmanID);
@@ -394,31 +956,931 @@ public class AstarAgent extends Agent {
 
 		MapLocation goalLoc = new MapLocation(townhallUnit.getXPosition(), townhallUnit.getYPosition(), null, 0);
 
-		MapLocation footmanLoc = null;
-		if(enemyFootmanID != -1) {
-			Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
-			footmanLoc = new MapLocation(enemyFootmanUnit.getXPosition(), enemyFootmanUnit.getYPosition(), null, 0);
+		updateEnemyOverlay(state);
+
+		if(!components.isReachable(obstacleGrid.cellIndex(startLoc.x, startLoc.y), obstacleGrid.cellIndex(goalLoc.x, goalLoc.y))) {
+			// Cut off from the townhall, no need to search the whole area to find that out
+			reportUnreachable(true);
+			return null;
+		}
+
+		PackedPath found;
+		if(plannerMode == PlannerMode.DSTAR) {
+			found = dStarLiteSearch(startLoc, goalLoc);
+		} else if(plannerMode == PlannerMode.HPA) {
+			found = hierarchicalSearch(startLoc, goalLoc);
+		} else if(plannerMode == PlannerMode.FIELD) {
+			found = distanceFieldPath(startLoc);
+		} else if(plannerMode == PlannerMode.CPD) {
+			found = pathDatabaseSearch(startLoc, goalLoc);
+		} else if(plannerMode == PlannerMode.SUBGOAL) {
+			found = subgoalSearch(startLoc, goalLoc);
+		} else {
+			searchContext.beginSearch();
+			found = search(startLoc, goalLoc, gridAstar, jumpPointSearch, bidirectionalAstar);
+		}
+		reportUnreachable(found == null);
+		if(found != null) {
+			metrics.recordPath(found.remaining());
+			if(plannerMode.isBounded()) {
+				metrics.recordBound(gridAstar.getAchievedBound(), searchContext.getExpansions());
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return true if the resources alone keep every unit the agent moves away from the townhall.
+	 * Units can never leave the area they are in on the static map, so this does not change.
+	 */
+	private boolean cutOffByResources(State.StateView state)
+	{
+		Unit.UnitView townhallUnit = state.getUnit(townhallID);
+		if(townhallUnit == null) {
+			return false;
+		}
+		int goalCell = obstacleGrid.cellIndex(townhallUnit.getXPosition(), townhallUnit.getYPosition());
+		int[] units = cooperativeUnits != null ? cooperativeUnits : new int[] {footmanID};
+		for(int unitID : units) {
+			Unit.UnitView unit = state.getUnit(unitID);
+			if(unit != null && staticComponents.isReachable(obstacleGrid.cellIndex(unit.getXPosition(), unit.getYPosition()), goalCell)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Print the no path message the first time the townhall is found to be cut off. Planning is
+	 * tried again every turn while the footman waits for the enemy to move so this keeps it from
+	 * printing every turn. If the resources alone cut it off the next middleStep ends the episode.
+	 */
+	private void reportUnreachable(boolean unreachable)
+	{
+		if(unreachable && !goalUnreachable) {
+			System.out.println("No available path.");
+		}
+		goalUnreachable = unreachable;
+	}
+
+	/**
+	 * Run the configured search in the given scratch space. Safe to call off the game thread as
+	 * long as nothing else is using the context or its grid.
+	 */
+	private PackedPath search(MapLocation start, MapLocation goal, GridAstar astar, JumpPointSearch jumpPoints, BidirectionalAstar bidirectional)
+	{
+		switch(plannerMode) {
+		case JPS:
+			return jumpPointSearch(start, goal, astar.getContext(), jumpPoints);
+		case BIDIR:
+			return bidirectionalSearch(start, goal, astar.getContext(), bidirectional);
+		default:
+			return AstarSearch(start, goal, astar);
 		}
+	}
+
+	/**
+	 * Give the search the bound of a WEIGHTED or FOCAL planner. Any other planner stays optimal.
+	 */
+	private void setBound(GridAstar astar)
+	{
+		double w = Double.isNaN(plannerParameter) ? BOUNDED_DEFAULT_W : Math.max(1.0, plannerParameter);
+		if(plannerMode == PlannerMode.WEIGHTED) {
+			astar.setWeight(w);
+		} else if(plannerMode == PlannerMode.FOCAL) {
+			astar.setFocalBound(w);
+		}
+	}
+
+	/**
+	 * Build the static obstacle layer from the resource locations. These never move during
+	 * an episode so this only happens once in initialStep.
+	 */
+	private void buildObstacleGrid(State.StateView state)
+	{
+		obstacleGrid = new ObstacleGrid(state.getXExtent(), state.getYExtent());
 
 		// get resource locations
 		List<Integer> resourceIDs = state.getAllResourceIds();
-		Set<MapLocation> resourceLocations = new HashSet<MapLocation>();
 		for(Integer resourceID : resourceIDs)
 		{
 			ResourceNode.ResourceView resource = state.getResourceNode(resourceID);
 
-			resourceLocations.add(new MapLocation(resource.getXPosition(), resource.getYPosition(), null, 0));
+			obstacleGrid.blockStatic(resource.getXPosition(), resource.getYPosition());
+		}
+
+		searchContext = new SearchContext(obstacleGrid, bucketOpenList);
+		repairCells = new int[obstacleGrid.size()];
+		jumpPointSearch = new JumpPointSearch(searchContext);
+		if(plannerMode == PlannerMode.BIDIR) {
+			bidirectionalAstar = new BidirectionalAstar(obstacleGrid, bucketOpenList);
+		}
+		if(plannerMode == PlannerMode.ALT) {
+			int landmarkCount = Double.isNaN(plannerParameter) ? ALT_DEFAULT_LANDMARKS : Math.max(1, (int) plannerParameter);
+			landmarkHeuristic = LandmarkHeuristic.forGrid(obstacleGrid, landmarkCount, LANDMARK_CACHE_DIRECTORY);
+		}
+		gridAstar = new GridAstar(searchContext, landmarkHeuristic);
+		setBound(gridAstar);
+		if(plannerMode == PlannerMode.CPD && (pathDatabase == null || !pathDatabase.matches(obstacleGrid))) {
+			pathDatabase = openPathDatabase();
+		}
+		if(plannerMode == PlannerMode.SUBGOAL) {
+			subgoalGraph = SubgoalGraph.forGrid(obstacleGrid, SUBGOAL_CACHE_DIRECTORY);
+		}
+		if(plannerMode == PlannerMode.SPACETIME || plannerMode == PlannerMode.WHCA) {
+			int defaultHorizon = plannerMode == PlannerMode.WHCA ? WHCA_DEFAULT_WINDOW : SPACETIME_DEFAULT_HORIZON;
+			int horizon = Double.isNaN(plannerParameter) ? defaultHorizon : Math.max(1, (int) plannerParameter);
+			spaceTimeAstar = new SpaceTimeAstar(obstacleGrid, horizon);
+			reservations = new ReservationTable(obstacleGrid.size());
+			enemyTargetField = new DistanceField(new ObstacleGrid(obstacleGrid));
+			predictedEnemy = new int[horizon + 1];
+			plannedFootman = new int[obstacleGrid.size() + horizon + 2];
+			plannedFootmanLength = 0;
+			path = null;
+			nextLoc = null;
+		}
+		if(plannerMode == PlannerMode.WHCA) {
+			Unit.UnitView townhallUnit = state.getUnit(townhallID);
+			townhallDistance = new DistanceField(new ObstacleGrid(obstacleGrid));
+			townhallDistance.build(obstacleGrid.cellIndex(townhallUnit.getXPosition(), townhallUnit.getYPosition()));
+			cooperativeWindow = spaceTimeAstar.getHorizon();
+		}
+		if(plannerMode == PlannerMode.DSTAR) {
+			dStarLite = new DStarLite(obstacleGrid);
+		}
+		if(plannerMode == PlannerMode.HPA) {
+			int clusterSize = Double.isNaN(plannerParameter) ? 10 : Math.max(2, (int) plannerParameter);
+			hierarchicalPlanner = new HierarchicalPlanner(obstacleGrid, clusterSize);
+		}
+		if(plannerMode == PlannerMode.FIELD) {
+			Unit.UnitView townhallUnit = state.getUnit(townhallID);
+			flowFields = new FlowFieldCache(obstacleGrid, FIELD_CACHE_TARGETS);
+			distanceField = flowFields.getField(obstacleGrid.cellIndex(townhallUnit.getXPosition(), townhallUnit.getYPosition()));
+			claimedTurn = new int[obstacleGrid.size()];
+		}
+		if(plannerMode == PlannerMode.ARA) {
+			anytimeAstar = new AnytimeAstar(obstacleGrid, ARA_INITIAL_EPSILON, ARA_EPSILON_STEP);
+			anytimeBudget = Double.isNaN(plannerParameter) ? ARA_DEFAULT_BUDGET : Math.max(1, (long) plannerParameter);
+			anytimeSearching = false;
+			path = null;
+			nextLoc = null;
+		}
+		if(plannerMode == PlannerMode.SLICED) {
+			slicedExpansions = Double.isNaN(plannerParameter) ? SLICED_DEFAULT_EXPANSIONS : Math.max(1, (int) plannerParameter);
+			slicedSearching = false;
+			path = null;
+			nextLoc = null;
+		}
+		components = new ConnectedComponents(obstacleGrid);
+		staticComponents = new ConnectedComponents(new ObstacleGrid(obstacleGrid));
+		enemyCell = -1;
+		goalUnreachable = false;
+
+		if(asyncPlanning) {
+			// The background thread gets its own grid so the game thread can keep moving the enemy in ours
+			asyncSearchContext = new SearchContext(new ObstacleGrid(obstacleGrid), bucketOpenList);
+			asyncGridAstar = new GridAstar(asyncSearchContext, landmarkHeuristic);
+			setBound(asyncGridAstar);
+			asyncJumpPointSearch = new JumpPointSearch(asyncSearchContext);
+			if(plannerMode == PlannerMode.BIDIR) {
+				asyncBidirectionalAstar = new BidirectionalAstar(asyncSearchContext.getGrid(), bucketOpenList);
+			}
+			if(planExecutor == null) {
+				planExecutor = Executors.newSingleThreadExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "AstarAgent planner");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			publishedPath.set(null);
+			requestedEnemyVersion = -1;
+			path = null;
+			nextLoc = null;
+		}
+	}
+
+	/**
+	 * Move the enemy footman in the dynamic obstacle layer if it has moved since the last plan.
+	 */
+	private void updateEnemyOverlay(State.StateView state)
+	{
+		int currentEnemyCell = currentEnemyCell(state);
+		if(currentEnemyCell == enemyCell) {
+			return;
+		}
+
+		if(enemyCell != -1) {
+			obstacleGrid.unblockDynamic(enemyCell);
+			obstacleChanged(enemyCell);
+		}
+		if(currentEnemyCell != -1) {
+			obstacleGrid.blockDynamic(currentEnemyCell);
+			obstacleChanged(currentEnemyCell);
+		}
+		enemyCell = currentEnemyCell;
+		enemyVersion++;
+	}
+
+	/**
+	 * Let the planners that keep state between plans know a cell of the obstacle grid changed.
+	 */
+	private void obstacleChanged(int cell)
+	{
+		if(obstacleGrid.isBlocked(cell)) {
+			components.cellBlocked(cell);
+		} else {
+			components.cellFreed(cell);
+		}
+		if(dStarLite != null) {
+			dStarLite.cellChanged(cell);
+		}
+		if(hierarchicalPlanner != null) {
+			hierarchicalPlanner.obstacleChanged(cell);
+		}
+		if(flowFields != null) {
+			flowFields.cellChanged(cell);
+		}
+	}
+
+	/**
+	 * Walk downhill on the distance field all the way to the townhall. Only used for the first plan,
+	 * after that followDistanceField looks up one step per turn.
+	 */
+	private PackedPath distanceFieldPath(MapLocation start){
+		int cell = obstacleGrid.cellIndex(start.x, start.y);
+		if(distanceField.getDistance(cell) >= DistanceField.UNREACHABLE) {
+			return null;
+		}
+		int length = 0;
+		int[] cells = new int[distanceField.getDistance(cell)];
+		for(int next = distanceField.nextStep(cell); next != -1; next = distanceField.nextStep(next)) {
+			cells[length++] = next;
+		}
+		return generatePath(cell, cells, length, obstacleGrid.xExtent);
+	}
+
+	/**
+	 * Keep the distance field up to date with the enemy footman and, once the footman has reached
+	 * its last step (or that step got blocked), replace the path with the next step downhill.
+	 * There is nothing to replan because the field already accounts for the enemy. If the townhall
+	 * is cut off the path is cleared and the footman waits.
+	 */
+	private void followDistanceField(State.StateView state, int footmanX, int footmanY){
+		updateEnemyOverlay(state);
+
+		boolean stepBlocked = nextLoc != null && obstacleGrid.isBlocked(obstacleGrid.cellIndex(nextLoc.x, nextLoc.y));
+		if(nextLoc != null && !stepBlocked && (footmanX != nextLoc.x || footmanY != nextLoc.y)) {
+			return;
+		}
+
+		int cell = obstacleGrid.cellIndex(footmanX, footmanY);
+		boolean unreachable = distanceField.getDistance(cell) >= DistanceField.UNREACHABLE;
+		reportUnreachable(unreachable);
+		if(unreachable) {
+			path = null;
+			nextLoc = null;
+			return;
+		}
+		int next = distanceField.nextStep(cell);
+		path = new PackedPath(obstacleGrid.xExtent, cell, new int[] {next}, next == -1 ? 0 : 1);
+		nextLoc = null;
+	}
+
+	/**
+	 * Move every unit the player owns one step downhill on the townhall's distance field, so there
+	 * is one field to keep up to date however many units there are. The field only knows about
+	 * resources and the enemy footman, so when another unit stands on or is moving onto a unit's
+	 * step it takes the best step left that still goes downhill, or waits. Units closest to the
+	 * townhall go first so the ones behind follow them in.
+	 */
+	private Map<Integer, Action> flowFieldStep(State.StateView state, History.HistoryView history){
+		long startTime = System.nanoTime();
+		Map<Integer, Action> actions = new HashMap<Integer, Action>();
+
+		Unit.UnitView townhallUnit = state.getUnit(townhallID);
+		if(townhallUnit == null) {
+			terminalStep(state, history);
+			return actions;
+		}
+
+		long planStartTime = System.nanoTime();
+		updateEnemyOverlay(state);
+		DistanceField field = flowFields.getField(obstacleGrid.cellIndex(townhallUnit.getXPosition(), townhallUnit.getYPosition()));
+		long planTime = System.nanoTime() - planStartTime;
+		recordPlanTime(planTime);
+
+		int stamp = state.getTurnNumber() + 1;
+		final int[] cells = new int[cooperativeUnits.length];
+		Integer[] order = new Integer[cooperativeUnits.length];
+		for(int i = 0; i < cooperativeUnits.length; i++) {
+			Unit.UnitView unit = state.getUnit(cooperativeUnits[i]);
+			cells[i] = unit == null ? -1 : obstacleGrid.cellIndex(unit.getXPosition(), unit.getYPosition());
+			if(cells[i] != -1) {
+				claimedTurn[cells[i]] = stamp;
+			}
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(cells[a] == -1 ? DistanceField.UNREACHABLE : field.getDistance(cells[a]),
+				cells[b] == -1 ? DistanceField.UNREACHABLE : field.getDistance(cells[b])));
+
+		boolean anyReachable = false;
+		for(int i : order) {
+			int cell = cells[i];
+			if(cell == -1 || field.getDistance(cell) >= DistanceField.UNREACHABLE) {
+				continue;
+			}
+			anyReachable = true;
+			int unitID = cooperativeUnits[i];
+			if(field.getDistance(cell) <= 1) {
+				actions.put(unitID, Action.createPrimitiveAttack(unitID, townhallID));
+				continue;
+			}
+			int direction = field.nextDirection(cell);
+			if(claimedTurn[step(cell, direction)] == stamp) {
+				direction = freeDownhillDirection(field, cell, stamp);
+			}
+			if(direction != -1) {
+				claimedTurn[step(cell, direction)] = stamp;
+				actions.put(unitID, Action.createPrimitiveMove(unitID, Direction.values()[direction]));
+			}
+		}
+		reportUnreachable(!anyReachable);
+
+		totalExecutionTime += System.nanoTime() - startTime - planTime;
+		return actions;
+	}
+
+	/**
+	 * @return the direction of the neighbour closest to the field's goal that is closer than the
+	 * cell and not claimed this turn, or -1 if there is none
+	 */
+	private int freeDownhillDirection(DistanceField field, int cell, int stamp){
+		int x = cell % obstacleGrid.xExtent;
+		int y = cell / obstacleGrid.xExtent;
+		int best = -1;
+		int bestDistance = field.getDistance(cell);
+		for(int d = 0; d < SearchContext.DX.length; d++) {
+			int nx = x + SearchContext.DX[d];
+			int ny = y + SearchContext.DY[d];
+			if(obstacleGrid.inBounds(nx, ny)) {
+				int next = obstacleGrid.cellIndex(nx, ny);
+				if(field.getDistance(next) < bestDistance && claimedTurn[next] != stamp) {
+					bestDistance = field.getDistance(next);
+					best = d;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the cell one move from the cell in the direction (an index into SearchContext.DX/DY)
+	 */
+	private int step(int cell, int direction){
+		return cell + SearchContext.DX[direction] + SearchContext.DY[direction] * obstacleGrid.xExtent;
+	}
+
+	/**
+	 * Same contract as AstarSearch but only the abstract cluster graph is searched up front and
+	 * just the first few segments are turned into steps. refineHierarchicalPath adds the rest as
+	 * the footman gets to them.
+	 */
+	private PackedPath hierarchicalSearch(MapLocation start, MapLocation goal){
+		if(hierarchicalPlanner.plan(obstacleGrid.cellIndex(start.x, start.y), obstacleGrid.cellIndex(goal.x, goal.y))
+				&& hierarchicalPlanner.refine(HPA_SEGMENTS_AHEAD)){
+			return generatePath(obstacleGrid.cellIndex(start.x, start.y), hierarchicalPlanner.getPath(), hierarchicalPlanner.getPathLength(), obstacleGrid.xExtent);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Once the footman has walked all the refined steps turn the next abstract segments into steps.
+	 * Falls back to a whole new plan if the grid changed under the remaining segments.
+	 *
+	 * @return the time spent planning in nsecs
+	 */
+	private long refineHierarchicalPath(State.StateView state){
+		if(!hierarchicalPlanner.hasMoreSegments()) {
+			return 0;
+		}
+		long planStartTime = System.nanoTime();
+		if(hierarchicalPlanner.refine(HPA_SEGMENTS_AHEAD)) {
+			// The refined steps carry on from the last step, which the footman is standing on
+			path = generatePath(obstacleGrid.cellIndex(nextLoc.x, nextLoc.y), hierarchicalPlanner.getPath(), hierarchicalPlanner.getPathLength(), obstacleGrid.xExtent);
+		} else {
+			path = findPath(state);
+		}
+		long planTime = System.nanoTime() - planStartTime;
+		recordPlanTime(planTime);
+		return planTime;
+	}
+
+	/**
+	 * Spend this turn's budget on the anytime planner. A new search is started when there is no
+	 * path and none is being worked on, or when the enemy footman got in the way of the current
+	 * one; the footman waits for the first (rough) path of a new search. Every better path found
+	 * after that replaces the current one from wherever the footman is standing.
+	 *
+	 * @return the time spent planning in nsecs
+	 */
+	private long improveAnytimePath(State.StateView state, History.HistoryView history, int footmanX, int footmanY){
+		long planStartTime = System.nanoTime();
+
+		boolean restart = path == null ? !anytimeSearching : shouldReplanPath(state, history, path);
+		if(restart && path != null) {
+			countReplan(replanReason);
+		}
+		if(restart) {
+			Unit.UnitView townhallUnit = state.getUnit(townhallID);
+			int startCell = obstacleGrid.cellIndex(footmanX, footmanY);
+			int goalCell = obstacleGrid.cellIndex(townhallUnit.getXPosition(), townhallUnit.getYPosition());
+			updateEnemyOverlay(state);
+			path = null;
+			nextLoc = null;
+			anytimeSearching = components.isReachable(startCell, goalCell);
+			reportUnreachable(!anytimeSearching);
+			if(anytimeSearching) {
+				anytimeAstar.begin(startCell, goalCell);
+			}
+		}
+
+		if(anytimeSearching && anytimeAstar.improve(planStartTime + anytimeBudget)
+				&& anytimeAstar.extractPath(obstacleGrid.cellIndex(footmanX, footmanY))) {
+			path = generatePath(obstacleGrid.cellIndex(footmanX, footmanY), anytimeAstar.getPath(), anytimeAstar.getPathLength(), obstacleGrid.xExtent);
+			nextLoc = null;
+			metrics.recordPath(path.remaining());
+		}
+		if(anytimeSearching && anytimeAstar.isFinished() && !anytimeAstar.hasPath()) {
+			anytimeSearching = false;
+			reportUnreachable(true);
+		}
+
+		long planTime = System.nanoTime() - planStartTime;
+		recordPlanTime(planTime);
+		return planTime;
+	}
+
+	/**
+	 * Give the A* search this turn's share of expansions. A new search is started when there is no
+	 * path and none is running, or when the enemy footman got in the way of the current path. The
+	 * footman stands still until the search finishes since the search is tied to where it started.
+	 *
+	 * @return the time spent planning in nsecs
+	 */
+	private long continueSlicedSearch(State.StateView state, History.HistoryView history, int footmanX, int footmanY){
+		long planStartTime = System.nanoTime();
+
+		boolean restart = path == null ? !slicedSearching : shouldReplanPath(state, history, path);
+		if(restart && path != null) {
+			countReplan(replanReason);
+		}
+		if(restart) {
+			Unit.UnitView townhallUnit = state.getUnit(townhallID);
+			int startCell = obstacleGrid.cellIndex(footmanX, footmanY);
+			int goalCell = obstacleGrid.cellIndex(townhallUnit.getXPosition(), townhallUnit.getYPosition());
+			updateEnemyOverlay(state);
+			path = null;
+			nextLoc = null;
+			slicedSearching = components.isReachable(startCell, goalCell);
+			reportUnreachable(!slicedSearching);
+			if(slicedSearching) {
+				gridAstar.begin(startCell, goalCell);
+				slicedStart = startCell;
+			}
+		}
+
+		if(slicedSearching && gridAstar.proceed(slicedExpansions)) {
+			if(gridAstar.found()) {
+				path = generatePath(slicedStart, searchContext.getPath(), searchContext.getPathLength(), obstacleGrid.xExtent);
+				metrics.recordPath(path.remaining());
+			}
+			reportUnreachable(path == null);
+			slicedSearching = false;
+		}
+
+		long planTime = System.nanoTime() - planStartTime;
+		recordPlanTime(planTime);
+		return planTime;
+	}
+
+	/**
+	 * Keep following the space-time plan as long as both units are where it expected them to be.
+	 * The enemy moving is not a reason to replan by itself; only the enemy going somewhere it was
+	 * not predicted to go, or the footman falling behind, is.
+	 *
+	 * @return the time spent planning in nsecs
+	 */
+	private long followSpaceTimePlan(State.StateView state, History.HistoryView history, int footmanX, int footmanY){
+		int turn = state.getTurnNumber();
+		int elapsed = turn - planTurn;
+		int footmanCell = obstacleGrid.cellIndex(footmanX, footmanY);
+		int enemy = currentEnemyCell(state);
+
+		boolean replan;
+		ReplanReason reason = null;
+		if(path == null) {
+			replan = true;
+		} else if(path.isEmpty() && nextLoc != null && footmanX == nextLoc.x && footmanY == nextLoc.y) {
+			// Already next to the townhall, nothing left to plan
+			replan = false;
+		} else if(plannedFootmanLength == 0) {
+			// A fallback plan that ignores the prediction, there is nothing to compare against
+			replan = shouldReplanPath(state, history, path);
+			reason = replanReason;
+		} else {
+			int expectedFootman = plannedFootman[Math.min(elapsed, plannedFootmanLength - 1)];
+			int expectedEnemy = predictedEnemy[Math.min(elapsed, predictedEnemy.length - 1)];
+			replan = footmanCell != expectedFootman || enemy != expectedEnemy;
+			reason = footmanCell != expectedFootman ? ReplanReason.OFF_PLAN : ReplanReason.ENEMY_OFF_PREDICTION;
+		}
+		if(!replan) {
+			return 0;
+		}
+
+		long planStartTime = System.nanoTime();
+		if(path != null) {
+			countReplan(reason);
+		}
+		path = null;
+		nextLoc = null;
+		updateEnemyOverlay(state);
+		Unit.UnitView townhallUnit = state.getUnit(townhallID);
+		int goalCell = obstacleGrid.cellIndex(townhallUnit.getXPosition(), townhallUnit.getYPosition());
+		boolean reachable = components.isReachable(footmanCell, goalCell);
+		if(reachable) {
+			predictEnemy(state, history, enemy);
+			reservations.clear();
+			reserveEnemy(enemy);
+
+			if(spaceTimeAstar.search(footmanCell, goalCell, reservations)) {
+				int[] cells = spaceTimeAstar.getPath();
+				int length = spaceTimeAstar.getPathLength();
+				path = generatePath(footmanCell, cells, length, obstacleGrid.xExtent);
+				metrics.recordPath(length);
+				planTurn = turn;
+				plannedFootman[0] = footmanCell;
+				System.arraycopy(cells, 0, plannedFootman, 1, length);
+				plannedFootmanLength = length + 1;
+			} else {
+				// Nowhere to go around the prediction, fall back to a plan that ignores it
+				path = findPath(state);
+				planTurn = turn;
+				plannedFootmanLength = 0;
+			}
+		}
+		reportUnreachable(!reachable);
+
+		long planTime = System.nanoTime() - planStartTime;
+		recordPlanTime(planTime);
+		return planTime;
+	}
+
+	/**
+	 * Reserve the predicted enemy path, see predictEnemy.
+	 */
+	private void reserveEnemy(int enemy){
+		if(enemy == -1) {
+			return;
+		}
+		for(int time = 0; time < predictedEnemy.length; time++) {
+			// A turn either side as well since the enemy may be a step early or late
+			reservations.reserve(predictedEnemy[time], time);
+			reservations.reserve(predictedEnemy[time], time + 1);
+			if(time > 0) {
+				reservations.reserve(predictedEnemy[time], time - 1);
+			}
+		}
+		// Wherever the prediction ends the enemy is expected to stay
+		reservations.reserveFrom(predictedEnemy[predictedEnemy.length - 1], predictedEnemy.length - 1);
+	}
+
+	/**
+	 * Move every unit the player owns towards the townhall with windowed hierarchical cooperative
+	 * A*. The units plan one at a time through a shared reservation table, so later units go
+	 * around or wait for earlier ones instead of walking into them and replanning. Each search only
+	 * honours reservations inside the window and all of them are redone once half the window has
+	 * been walked, or sooner if a unit is not where its plan put it or the enemy footman went off
+	 * its prediction.
+	 */
+	private Map<Integer, Action> cooperativeStep(State.StateView state, History.HistoryView history){
+		long startTime = System.nanoTime();
+		long planTime = 0;
+		Map<Integer, Action> actions = new HashMap<Integer, Action>();
+
+		Unit.UnitView townhallUnit = state.getUnit(townhallID);
+		if(townhallUnit == null) {
+			terminalStep(state, history);
+			return actions;
+		}
+		int townhallX = townhallUnit.getXPosition();
+		int townhallY = townhallUnit.getYPosition();
+
+		// Once every unit is attacking there is nothing left to plan
+		boolean moving = false;
+		boolean replan = cooperativePaths == null;
+		ReplanReason reason = ReplanReason.OFF_PLAN;
+		for(int i = 0; i < cooperativeUnits.length && !replan; i++) {
+			Unit.UnitView unit = state.getUnit(cooperativeUnits[i]);
+			if(unit != null) {
+				replan = obstacleGrid.cellIndex(unit.getXPosition(), unit.getYPosition()) != expectedCells[i];
+				moving |= Math.abs(unit.getXPosition() - townhallX) > 1 || Math.abs(unit.getYPosition() - townhallY) > 1;
+			}
+		}
+		int elapsed = state.getTurnNumber() - planTurn;
+		if(moving && !replan) {
+			if(elapsed >= Math.max(1, cooperativeWindow / 2)) {
+				replan = true;
+				reason = ReplanReason.WINDOW_ELAPSED;
+			} else if(currentEnemyCell(state) != predictedEnemy[Math.min(elapsed, cooperativeWindow)]) {
+				replan = true;
+				reason = ReplanReason.ENEMY_OFF_PREDICTION;
+			}
+		}
+		if(replan) {
+			long planStartTime = System.nanoTime();
+			if(cooperativePaths != null) {
+				countReplan(reason);
+			}
+			planCooperativePaths(state, history, obstacleGrid.cellIndex(townhallX, townhallY));
+			planTime = System.nanoTime() - planStartTime;
+			recordPlanTime(planTime);
+		}
+
+		for(int i = 0; i < cooperativeUnits.length; i++) {
+			int unitID = cooperativeUnits[i];
+			Unit.UnitView unit = state.getUnit(unitID);
+			if(unit == null) {
+				continue;
+			}
+			int unitX = unit.getXPosition();
+			int unitY = unit.getYPosition();
+			expectedCells[i] = obstacleGrid.cellIndex(unitX, unitY);
+			PackedPath unitPath = cooperativePaths[i];
+			if(unitPath != null && !unitPath.isEmpty()) {
+				int next = unitPath.next();
+				expectedCells[i] = next;
+				if(next != obstacleGrid.cellIndex(unitX, unitY)) {
+					Direction direction = getNextDirection(next % obstacleGrid.xExtent - unitX, next / obstacleGrid.xExtent - unitY);
+					actions.put(unitID, Action.createPrimitiveMove(unitID, direction));
+				}
+			} else if(Math.abs(unitX - townhallX) <= 1 && Math.abs(unitY - townhallY) <= 1) {
+				actions.put(unitID, Action.createPrimitiveAttack(unitID, townhallID));
+			}
+		}
+
+		totalExecutionTime += System.nanoTime() - startTime - planTime;
+		return actions;
+	}
+
+	/**
+	 * Plan a path for every unit against the reservations of the enemy and of the units that
+	 * planned before it, then reserve the part of the path inside the window. Units already next
+	 * to the townhall keep their cells for good and go first. Units that can not get anywhere this
+	 * window stand still and keep their cell for the whole window.
+	 */
+	private void planCooperativePaths(State.StateView state, History.HistoryView history, int goalCell){
+		updateEnemyOverlay(state);
+		int enemy = currentEnemyCell(state);
+		predictEnemy(state, history, enemy);
+		reservations.clear();
+		reserveEnemy(enemy);
+		planTurn = state.getTurnNumber();
+		if(cooperativePaths == null) {
+			cooperativePaths = new PackedPath[cooperativeUnits.length];
+		}
+
+		int count = cooperativeUnits.length;
+		int[] cells = new int[count];
+		for(int i = 0; i < count; i++) {
+			Unit.UnitView unit = state.getUnit(cooperativeUnits[i]);
+			cells[i] = unit == null ? -1 : obstacleGrid.cellIndex(unit.getXPosition(), unit.getYPosition());
+			cooperativePaths[i] = null;
+			if(cells[i] == -1) {
+				continue;
+			}
+			if(searchContext.distance(cells[i], goalCell) <= 1) {
+				reservations.reserveFrom(cells[i], 0);
+			} else {
+				// Until a unit has planned the others have to assume it stays where it is
+				reservations.reserve(cells[i], 0);
+				reservations.reserve(cells[i], 1);
+			}
+		}
+
+		boolean anyReachable = false;
+		for(int k = 0; k < count; k++) {
+			int i = (k + priorityOffset) % count;
+			int cell = cells[i];
+			if(cell == -1) {
+				continue;
+			}
+			if(searchContext.distance(cell, goalCell) <= 1) {
+				anyReachable = true;
+				continue;
+			}
+			reservations.release(cell, 0);
+			reservations.release(cell, 1);
+			boolean reachable = components.isReachable(cell, goalCell);
+			anyReachable |= reachable;
+			if(reachable && spaceTimeAstar.search(cell, goalCell, reservations, townhallDistance)) {
+				int[] steps = spaceTimeAstar.getPath();
+				int length = spaceTimeAstar.getPathLength();
+				cooperativePaths[i] = new PackedPath(obstacleGrid.xExtent, cell, steps, length);
+				metrics.recordPath(length);
+				for(int time = 0; time <= Math.min(length, cooperativeWindow); time++) {
+					int stepCell = time == 0 ? cell : steps[time - 1];
+					// The turn after as well since the unit may still be leaving the cell
+					reservations.reserve(stepCell, time);
+					reservations.reserve(stepCell, time + 1);
+				}
+				if(length <= cooperativeWindow) {
+					// It stops next to the townhall
+					reservations.reserveFrom(length == 0 ? cell : steps[length - 1], length);
+				}
+			} else {
+				for(int time = 0; time <= cooperativeWindow; time++) {
+					reservations.reserve(cell, time);
+				}
+			}
+		}
+		priorityOffset = count == 0 ? 0 : (priorityOffset + 1) % count;
+		reportUnreachable(!anyReachable);
+	}
+
+	/**
+	 * Guess where the enemy footman will be for each turn of the horizon. If it was recently
+	 * ordered to move somewhere it is expected to take a shortest path there, otherwise it keeps
+	 * going the way it last stepped until it runs into something, and if it has not moved lately
+	 * it stays put.
+	 */
+	private void predictEnemy(State.StateView state, History.HistoryView history, int enemy){
+		Arrays.fill(predictedEnemy, enemy);
+		if(enemy == -1) {
+			return;
+		}
+
+		int turn = state.getTurnNumber();
+		int target = -1;
+		int lastDirection = -1;
+		for(int back = 1; back <= ENEMY_HISTORY_TURNS && turn - back >= 0; back++) {
+			if(target == -1) {
+				Action command = history.getCommandsIssued(enemyPlayerNum, turn - back).get(enemyFootmanID);
+				if(command instanceof LocatedAction && command.getType() == ActionType.COMPOUNDMOVE) {
+					LocatedAction move = (LocatedAction) command;
+					if(obstacleGrid.inBounds(move.getX(), move.getY())) {
+						target = obstacleGrid.cellIndex(move.getX(), move.getY());
+					}
+				}
+			}
+			if(lastDirection == -1 && back == 1) {
+				ActionResult result = history.getPrimitiveFeedback(enemyPlayerNum, turn - back).get(enemyFootmanID);
+				if(result != null && result.getFeedback() == ActionFeedback.COMPLETED && result.getAction() instanceof DirectedAction) {
+					lastDirection = ((DirectedAction) result.getAction()).getDirection().ordinal();
+				}
+			}
+		}
+
+		if(target != -1) {
+			if(enemyTargetField.getGoal() != target) {
+				enemyTargetField.build(target);
+			}
+			for(int time = 1; time < predictedEnemy.length; time++) {
+				int cell = predictedEnemy[time - 1];
+				int distance = enemyTargetField.getDistance(cell);
+				int next = distance == 1 ? target : enemyTargetField.nextStep(cell);
+				predictedEnemy[time] = next == -1 ? cell : next;
+			}
+		} else if(lastDirection != -1) {
+			for(int time = 1; time < predictedEnemy.length; time++) {
+				int cell = predictedEnemy[time - 1];
+				int x = cell % obstacleGrid.xExtent + SearchContext.DX[lastDirection];
+				int y = cell / obstacleGrid.xExtent + SearchContext.DY[lastDirection];
+				boolean open = obstacleGrid.inBounds(x, y) && !obstacleGrid.isStaticBlocked(obstacleGrid.cellIndex(x, y));
+				predictedEnemy[time] = open ? obstacleGrid.cellIndex(x, y) : cell;
+			}
+		}
+	}
+
+	/**
+	 * @return the cell the enemy footman is on or -1 if there is none
+	 */
+	private int currentEnemyCell(State.StateView state){
+		if(enemyFootmanID == -1) {
+			return -1;
+		}
+		Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
+		if(enemyFootmanUnit == null) {
+			return -1;
+		}
+		return obstacleGrid.cellIndex(enemyFootmanUnit.getXPosition(), enemyFootmanUnit.getYPosition());
+	}
+
+	/**
+	 * Same contract as AstarSearch but the D* Lite planner is kept between calls so only the
+	 * cells that changed since the last plan are repaired.
+	 */
+	private PackedPath dStarLiteSearch(MapLocation start, MapLocation goal){
+		if(dStarLite.plan(obstacleGrid.cellIndex(start.x, start.y), obstacleGrid.cellIndex(goal.x, goal.y))){
+			return generatePath(obstacleGrid.cellIndex(start.x, start.y), dStarLite.getPath(), dStarLite.getPathLength(), obstacleGrid.xExtent);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Map the path database for the current map if PathDatabaseBuilder has written one.
+	 *
+	 * @return the database or null to plan with A* instead
+	 */
+	private PathDatabase openPathDatabase(){
+		File file = PathDatabase.fileFor(PATH_DATABASE_DIRECTORY, obstacleGrid);
+		if(!file.exists()) {
+			System.err.println("No path database at " + file + ". Run PathDatabaseBuilder on this map. Using A* instead.");
+			return null;
+		}
+		try {
+			PathDatabase database = PathDatabase.open(file);
+			if(database.matches(obstacleGrid)) {
+				return database;
+			}
+			System.err.println("Path database " + file + " is for a different map. Using A* instead.");
+		} catch (IOException e) {
+			System.err.println("Failed to open path database " + file + ". Reason: " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Same contract as AstarSearch but the path is read out of the path database one first move at
+	 * a time. The database only knows the static map so if the enemy footman is standing on the
+	 * path it falls back to A*.
+	 */
+	private PackedPath pathDatabaseSearch(MapLocation start, MapLocation goal){
+		if(pathDatabase != null && pathDatabase.extractPath(obstacleGrid.cellIndex(start.x, start.y), obstacleGrid.cellIndex(goal.x, goal.y))) {
+			int[] cells = pathDatabase.getPath();
+			int length = pathDatabase.getPathLength();
+			boolean clear = true;
+			for(int i = 0; i < length && clear; i++) {
+				clear = !obstacleGrid.isBlocked(cells[i]);
+			}
+			if(clear) {
+				return generatePath(obstacleGrid.cellIndex(start.x, start.y), cells, length, obstacleGrid.xExtent);
+			}
+		}
+
+		return AstarSearch(start, goal, gridAstar);
+	}
+
+	/**
+	 * Same contract as AstarSearch but the search runs over the subgoal graph and only the edges of
+	 * the result are walked out into steps. The graph only knows the static map so if the enemy
+	 * footman is standing on the path it falls back to A*.
+	 */
+	private PackedPath subgoalSearch(MapLocation start, MapLocation goal){
+		if(subgoalGraph.search(obstacleGrid.cellIndex(start.x, start.y), obstacleGrid.cellIndex(goal.x, goal.y))) {
+			int[] cells = subgoalGraph.getPath();
+			int length = subgoalGraph.getPathLength();
+			boolean clear = true;
+			for(int i = 0; i < length && clear; i++) {
+				clear = !obstacleGrid.isBlocked(cells[i]);
+			}
+			if(clear) {
+				return generatePath(obstacleGrid.cellIndex(start.x, start.y), cells, length, obstacleGrid.xExtent);
+			}
 		}
 
-		return AstarSearch(startLoc, goalLoc, state.getXExtent(), state.getYExtent(), footmanLoc, resourceLocations);
+		return AstarSearch(start, goal, gridAstar);
+	}
+
+	/**
+	 * Same contract as AstarSearch but the search grows from both ends and stops where they meet.
+	 */
+	private PackedPath bidirectionalSearch(MapLocation start, MapLocation goal, SearchContext context, BidirectionalAstar bidirectional){
+		if(bidirectional.search(context.cellIndex(start.x, start.y), context.cellIndex(goal.x, goal.y))){
+			return generatePath(context.cellIndex(start.x, start.y), bidirectional.getPath(), bidirectional.getPathLength(), context.xExtent);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Same contract as AstarSearch but only jump points go on the open list.
+	 */
+	private PackedPath jumpPointSearch(MapLocation start, MapLocation goal, SearchContext context, JumpPointSearch jumpPoints){
+		if(jumpPoints.search(context.cellIndex(start.x, start.y), context.cellIndex(goal.x, goal.y))){
+			return generatePath(context.cellIndex(start.x, start.y), context.getPath(), context.getPathLength(), context.xExtent);
+		}
+
+		return null;
 	}
 	/**
 	 * This is the method you will implement for the assignment. Your implementation
 	 * will use the A* algorithm to compute the optimum path from the start position to
 	 * a position adjacent to the goal position.
 	 *
-	 * You will return a Stack of positions with the top of the stack being the first space to move to
-	 * and the bottom of the stack being the last space to move to. If there is no path to the townhall
+	 * You will return a PackedPath from the start position whose steps are the spaces to move to,
+	 * first space first and last space last. If there is no path to the townhall
 	 * then return null from the method and the agent will print a message and do nothing.
 	 * The code to execute the plan is provided for you in the middleStep method.
 	 *
@@ -438,7 +1900,7 @@ public class AstarAgent extends Agent {
 	 * yExtent would be 3 for this map with valid Y coordinates in the range of [0, 2]
 	 * y=0 is the top most row and y=2 is the bottom most row
 	 *
-	 * resourceLocations would be {(0,1), (1,1), (2,1), (4,1)}
+	 * the blocked cells in the obstacle grid would be {(0,1), (1,1), (2,1), (4,1)}
 	 *
 	 * The path would be
 	 *
@@ -448,141 +1910,27 @@ public class AstarAgent extends Agent {
 	 * (2,2)
 	 * (1,2)
 	 *
-	 * Notice how the initial footman position and the townhall position are not included in the path stack
+	 * Notice how the initial footman position and the townhall position are not steps of the path
 	 *
 	 * @param start Starting position of the footman
 	 * @param goal MapLocation of the townhall
-	 * @param xExtent Width of the map
-	 * @param yExtent Height of the map
-	 * @param resourceLocations Set of positions occupied by resources
-	 * @return Stack of positions with top of stack being first move in plan
-	 */
-	private Stack<MapLocation> AstarSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent, 
-			MapLocation enemyFootmanLoc, Set<MapLocation> resourceLocations){   
-		// Queue of SearchNodes starting with lowest cost
-		PriorityQueue<SearchNode> frontierQueue = 
-				new PriorityQueue<SearchNode>(xExtent * yExtent, 
-						// The comparator only takes cost estimate into account
-						(SearchNodeA, SearchNodeB) -> {
-							if(SearchNodeA.cost > SearchNodeB.cost){
-								return 1;
-							} else if (SearchNodeA.cost < SearchNodeB.cost){
-								return -1;
-							} else {
-								return 0;
-							}
-						});
-		// A fast way to see if a node is in the open list w/o iterating through the priority queue
-		Set<MapLocationWrapper> frontierSet = new HashSet<MapLocationWrapper>();
-		// A wrapper for the resources to enable calling .contains/.equals
-		Set<MapLocationWrapper> resourceLocationsSet = new HashSet<MapLocationWrapper>();
-		// Fill the wrapper with all of the resource locations
-		resourceLocations.stream().forEach(e -> resourceLocationsSet.add(new MapLocationWrapper(e)));
-		// A fast way to see if a node has already been expanded
-		Set<MapLocationWrapper> exploredSet = new HashSet<MapLocationWrapper>();
-
-		// Add the current/starting position to the openList
-		SearchNode startNode = new SearchNode(new MapLocationWrapper(start), null, 0);
-		frontierQueue.add(startNode);
-		frontierSet.add(startNode.location);
-
-		while(!frontierQueue.isEmpty()){ // Loop until we have seen all locations or found the goal 
-			SearchNode current = frontierQueue.remove();
-			if(current.location.x == goal.x && current.location.y == goal.y){
-				return generatePathFromEndNode(current); // Early termination of loop
-			} else {
-				exploreNode(current, frontierQueue, frontierSet, resourceLocationsSet, goal, exploredSet, enemyFootmanLoc, xExtent, yExtent);
-			}
-		}
-
-		// We looked through all of the reachable locations and didn't see the goal
-		System.out.println("No available path.");
-		System.exit(0);
-		return null;
-	}
-
-	/**
-	 * Explore the current node by examining all surrounding locations for possible next steps. 
-	 */
-	private void exploreNode(SearchNode current, PriorityQueue<SearchNode> frontierQueue,
-			Set<MapLocationWrapper> frontierSet, Set<MapLocationWrapper> resourceLocationsSet, MapLocation goal, 
-			Set<MapLocationWrapper> exploredSet, MapLocation enemyFootmanLoc, int xExtent, int yExtent) {
-		
-		// add the current state to the closed lists
-		exploredSet.add(current.location);
-
-		// Go in all directions
-		Direction[] directions = Direction.values();
-		for(int i = 0; i < directions.length; i++){
-			MapLocationWrapper expandedLocation = getLocationForDirection(directions[i], current);
-
-			SearchNode expanedSearchNode = new SearchNode(expandedLocation, current, current.cost + 1 + heuristic(expandedLocation, goal));
-
-			boolean withinMapBounds = expandedLocation.y < yExtent && expandedLocation.x < xExtent && expandedLocation.y >= 0 && expandedLocation.x >= 0;
-			if( withinMapBounds &&
-					!exploredSet.contains(expandedLocation) &&
-					!resourceLocationsSet.contains(expandedLocation) &&
-					(enemyFootmanLoc == null || // No enemy or isn't an enemy location
-						(expandedLocation.y != enemyFootmanLoc.y || expandedLocation.x != enemyFootmanLoc.x))){
-				if(frontierSet.contains(expandedLocation)){
-					// This node has been seen but not explored
-					Iterator<SearchNode> iterator = frontierQueue.iterator();
-					boolean done = false;
-					while(!done && iterator.hasNext()){
-						SearchNode nodeToTest = iterator.next();
-						if(nodeToTest.location.x == expanedSearchNode.location.x && nodeToTest.location.y == expanedSearchNode.location.y){
-							done = true;
-							if(nodeToTest.cost > expanedSearchNode.cost){
-								// This path is a better way to get to this location
-								frontierQueue.remove(nodeToTest);
-								frontierQueue.add(expanedSearchNode);
-							}
-						}
-					}
-				} else {
-					// This node has not been seen
-					frontierQueue.add(expanedSearchNode);
-					frontierSet.add(expanedSearchNode.location);
-				}
-			}
-		}
-	}
-
-	/**
-	 * Put the path together from the goal node to the beginning.
+	 * @param astar The search and its scratch space over the map's obstacle grid
+	 * @return the path with the first move in the plan as its next step
 	 */
-	private Stack<MapLocation> generatePathFromEndNode(SearchNode goal) {
-		Stack<MapLocation> path = new Stack<MapLocation>();
-		while(goal.cameFrom != null){
-			path.push(goal.cameFrom.location.getMapLocation());
-			goal = goal.cameFrom;
+	private PackedPath AstarSearch(MapLocation start, MapLocation goal, GridAstar astar){   
+		SearchContext context = astar.getContext();
+		int startIndex = context.cellIndex(start.x, start.y);
+		if(!astar.search(startIndex, context.cellIndex(goal.x, goal.y))){
+			return null;
 		}
-		path.pop(); // Don't include the starting location
-		return path;
+		return generatePath(startIndex, context.getPath(), context.getPathLength(), context.xExtent);
 	}
 
 	/**
-	 * Return a search node that is one away from the current node in the direction specified
+	 * Turn a path of cell indexes (first move first) into a packed path from the start cell.
 	 */
-	private MapLocationWrapper getLocationForDirection(Direction direction, SearchNode current) {
-		switch(direction){
-		case NORTH:
-			return new MapLocationWrapper(current.location.x, current.location.y - 1);
-		case EAST:
-			return new MapLocationWrapper(current.location.x + 1, current.location.y);
-		case NORTHEAST:
-			return new MapLocationWrapper(current.location.x + 1, current.location.y - 1);
-		case NORTHWEST:
-			return new MapLocationWrapper(current.location.x - 1, current.location.y - 1);
-		case SOUTH:
-			return new MapLocationWrapper(current.location.x, current.location.y + 1);
-		case SOUTHEAST:
-			return new MapLocationWrapper(current.location.x + 1, current.location.y + 1);
-		case SOUTHWEST:
-			return new MapLocationWrapper(current.location.x - 1, current.location.y + 1);
-		default: // WEST
-			return new MapLocationWrapper(current.location.x - 1, current.location.y);
-		}
+	private PackedPath generatePath(int start, int[] cells, int length, int xExtent) {
+		return new PackedPath(xExtent, start, cells, length);
 	}
 
 	/**
@@ -594,9 +1942,12 @@ public class AstarAgent extends Agent {
 	 * The estimate is both admissible (never overestimates) and consistent (satisfies the triangle inequality). 
 	 */
 	private int heuristic(MapLocationWrapper node, MapLocation goal){
-		// -1 as we are not trying to get to the goal but rather adjacent to goal
-		// -1 to be absolutely positive it is admissible
-		return Math.max(Math.abs(goal.x - node.x), Math.abs(goal.y - node.y)) - 1; 
+		return heuristic(node.x, node.y, goal);
+	}
+
+	private int heuristic(int x, int y, MapLocation goal){
+		// The same estimate the searches use
+		return gridAstar.estimate(obstacleGrid.cellIndex(x, y), obstacleGrid.cellIndex(goal.x, goal.y));
 	}
 
 	/**
@@ -0,0 +1,290 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Anytime Repairing A* (Likhachev, Gordon and Thrun) over an ObstacleGrid where every move costs 1.
+ *
+ * A quick path is found first with the heuristic inflated by epsilon, then epsilon is lowered step
+ * by step and the search tree is reused to improve the path until it is optimal (epsilon 1). The
+ * work is handed out in slices: improve runs until a deadline and picks up where it left off on
+ * the next call, so a caller can spend a fixed amount of time per turn.
+ *
+ * The search runs backwards from the goal. Every reached cell then has a parent chain leading to
+ * the goal, so once the unit has started walking an earlier path the improved path can be read
+ * off from the cell it is standing on instead of the cell it started from.
+ */
+public class AnytimeAstar {
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+	// f values are kept in fixed point so fractional epsilons still order correctly
+	private static final int F_SCALE = 256;
+	// how many expansions run between looks at the clock
+	private static final int CLOCK_INTERVAL = 32;
+
+	private final ObstacleGrid grid;
+	private final double initialEpsilon;
+	private final double epsilonStep;
+
+	private final int[] g;
+	private final int[] parent;
+	// g and parent are only valid for cells stamped with the current search
+	private final int[] seenStamp;
+	private int searchGeneration;
+	// closed and incons are per epsilon iteration
+	private final int[] closedStamp;
+	private final int[] inconsStamp;
+	private int iterationGeneration;
+	private final IndexedMinHeap open;
+	// cells improved after they were closed, queued again when epsilon drops
+	private final int[] incons;
+	private int inconsCount;
+	// scratch for re-keying the open list
+	private final int[] rekey;
+
+	private int start = -1;
+	private int goal = -1;
+	private double epsilon;
+	// bound of the best path found so far or infinity if there is none yet
+	private double solutionEpsilon;
+	private boolean finished;
+
+	private final int[] path;
+	private int pathLength;
+	private int expansions;
+
+	public AnytimeAstar(ObstacleGrid grid, double initialEpsilon, double epsilonStep){
+		this.grid = grid;
+		this.initialEpsilon = Math.max(1.0, initialEpsilon);
+		this.epsilonStep = epsilonStep;
+		int size = grid.size();
+		this.g = new int[size];
+		this.parent = new int[size];
+		this.seenStamp = new int[size];
+		this.closedStamp = new int[size];
+		this.inconsStamp = new int[size];
+		this.open = new IndexedMinHeap(size);
+		this.incons = new int[size];
+		this.rekey = new int[size];
+		this.path = new int[size];
+	}
+
+	/**
+	 * Throw away the previous search and start a new one at the initial epsilon. Nothing is
+	 * expanded until improve is called.
+	 */
+	public void begin(int startCell, int goalCell){
+		start = startCell;
+		goal = goalCell;
+		epsilon = initialEpsilon;
+		solutionEpsilon = Double.POSITIVE_INFINITY;
+		finished = false;
+		expansions = 0;
+		pathLength = 0;
+
+		searchGeneration++;
+		if(searchGeneration == Integer.MAX_VALUE){
+			searchGeneration = 1;
+			Arrays.fill(seenStamp, 0);
+		}
+		startIteration();
+		open.clear();
+		setCost(goal, 0, -1);
+		open.add(goal, key(goal));
+	}
+
+	/**
+	 * Keep searching until the deadline (System.nanoTime) or until the path is optimal.
+	 *
+	 * @return true if a better path was found during this call
+	 */
+	public boolean improve(long deadline){
+		if(goal == -1 || finished){
+			return false;
+		}
+		boolean improved = false;
+		int sinceClock = 0;
+		while(true){
+			if(!open.isEmpty() && fValue(open.peek()) < fValue(start)){
+				if(++sinceClock == CLOCK_INTERVAL){
+					sinceClock = 0;
+					if(System.nanoTime() >= deadline){
+						return improved;
+					}
+				}
+				expand(open.poll());
+				continue;
+			}
+
+			// Nothing left on the open list can beat the start so this epsilon is done
+			if(cost(start) >= INFINITY){
+				finished = true;
+				return improved;
+			}
+			if(epsilon < solutionEpsilon){
+				solutionEpsilon = epsilon;
+				improved = true;
+			}
+			if(epsilon <= 1.0){
+				finished = true;
+				return improved;
+			}
+			epsilon = Math.max(1.0, epsilon - epsilonStep);
+			requeue();
+			if(System.nanoTime() >= deadline){
+				return improved;
+			}
+		}
+	}
+
+	/**
+	 * @return true once a path has been found at all
+	 */
+	public boolean hasPath(){
+		return solutionEpsilon != Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return the suboptimality bound of the best path so far: its length is at most this many
+	 * times the shortest path from the start
+	 */
+	public double getSolutionEpsilon(){
+		return solutionEpsilon;
+	}
+
+	/**
+	 * @return true when the search can not improve any further, either because the path is
+	 * optimal or because the goal can not be reached
+	 */
+	public boolean isFinished(){
+		return finished;
+	}
+
+	/**
+	 * Read the current best path off the search tree from any cell the search has reached. The
+	 * path is available from getPath/getPathLength with the first move first and neither the
+	 * cell nor the goal included.
+	 *
+	 * @return false if the search never reached the cell
+	 */
+	public boolean extractPath(int fromCell){
+		pathLength = 0;
+		if(cost(fromCell) >= INFINITY){
+			return false;
+		}
+		for(int current = parent[fromCell]; current != goal && current != -1; current = parent[current]){
+			path[pathLength++] = current;
+		}
+		return true;
+	}
+
+	public int[] getPath(){
+		return path;
+	}
+
+	public int getPathLength(){
+		return pathLength;
+	}
+
+	/**
+	 * @return the number of cells expanded since begin
+	 */
+	public int getExpansions(){
+		return expansions;
+	}
+
+	/**
+	 * @return the open list, whose counts cover every search this planner has run
+	 */
+	public OpenList getOpen(){
+		return open;
+	}
+
+	private void expand(int cell){
+		expansions++;
+		closedStamp[cell] = iterationGeneration;
+		int nextCost = g[cell] + 1;
+		int x = cell % grid.xExtent;
+		int y = cell / grid.xExtent;
+		for(int d = 0; d < SearchContext.DX.length; d++){
+			int nx = x + SearchContext.DX[d];
+			int ny = y + SearchContext.DY[d];
+			if(!grid.inBounds(nx, ny)){
+				continue;
+			}
+			int next = grid.cellIndex(nx, ny);
+			if(grid.isBlocked(next) || nextCost >= cost(next)){
+				continue;
+			}
+			setCost(next, nextCost, cell);
+			if(closedStamp[next] != iterationGeneration){
+				open.update(next, key(next));
+			} else if(inconsStamp[next] != iterationGeneration){
+				// Already expanded at this epsilon, it gets another go at the next one
+				inconsStamp[next] = iterationGeneration;
+				incons[inconsCount++] = next;
+			}
+		}
+	}
+
+	/**
+	 * Start the next epsilon: the inconsistent cells join the open list and every key is
+	 * recomputed with the new epsilon.
+	 */
+	private void requeue(){
+		int count = 0;
+		while(!open.isEmpty()){
+			rekey[count++] = open.poll();
+		}
+		for(int i = 0; i < inconsCount; i++){
+			rekey[count++] = incons[i];
+		}
+		startIteration();
+		for(int i = 0; i < count; i++){
+			if(!open.contains(rekey[i])){
+				open.add(rekey[i], key(rekey[i]));
+			}
+		}
+	}
+
+	private void startIteration(){
+		inconsCount = 0;
+		iterationGeneration++;
+		if(iterationGeneration == Integer.MAX_VALUE){
+			iterationGeneration = 1;
+			Arrays.fill(closedStamp, 0);
+			Arrays.fill(inconsStamp, 0);
+		}
+	}
+
+	private int cost(int cell){
+		return seenStamp[cell] == searchGeneration ? g[cell] : INFINITY;
+	}
+
+	private void setCost(int cell, int cost, int parentCell){
+		seenStamp[cell] = searchGeneration;
+		g[cell] = cost;
+		parent[cell] = parentCell;
+	}
+
+	/**
+	 * @return g + epsilon * h in fixed point
+	 */
+	private long fValue(int cell){
+		int cost = cost(cell);
+		if(cost >= INFINITY){
+			return Long.MAX_VALUE;
+		}
+		return (long) (F_SCALE * (cost + epsilon * heuristic(cell)));
+	}
+
+	/**
+	 * Lowest f first with ties going to the cell furthest from the goal.
+	 */
+	private long key(int cell){
+		return (fValue(cell) << 32) | (Integer.MAX_VALUE - g[cell]);
+	}
+
+	private int heuristic(int cell){
+		return Math.max(Math.abs(cell % grid.xExtent - start % grid.xExtent), Math.abs(cell / grid.xExtent - start / grid.xExtent));
+	}
+}
@@ -0,0 +1,208 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * A* grown from both ends at once over an ObstacleGrid where every move costs 1. One frontier
+ * starts at the start and aims for the goal, the other starts at the goal and aims for the start,
+ * and the smaller frontier is expanded each step.
+ *
+ * Every time a frontier touches a cell the other side has already reached the total cost through
+ * that cell is a candidate path. The search stops once neither frontier has anything left with an
+ * f value below the best candidate: any path still undiscovered would have to go through one of
+ * those cells and so can not be shorter. On a long corridor between two open areas each side only
+ * has to fill the area around its own end.
+ */
+public class BidirectionalAstar {
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+	private final ObstacleGrid grid;
+	private final Frontier forward;
+	private final Frontier backward;
+
+	private final int[] path;
+	private int pathLength;
+	private int expansions;
+
+	/**
+	 * The search state of one of the two frontiers.
+	 */
+	private final class Frontier {
+		final int[] cost;
+		final int[] parent;
+		final int[] seenStamp;
+		final int[] closedStamp;
+		final OpenList open;
+		int generation;
+		// the cell this side is heading for
+		int target;
+
+		Frontier(int size, boolean bucketQueue){
+			cost = new int[size];
+			parent = new int[size];
+			seenStamp = new int[size];
+			closedStamp = new int[size];
+			open = bucketQueue ? new BucketQueue(size) : new IndexedMinHeap(size);
+		}
+
+		void begin(int source, int targetCell){
+			generation++;
+			if(generation == Integer.MAX_VALUE){
+				generation = 1;
+				Arrays.fill(seenStamp, 0);
+				Arrays.fill(closedStamp, 0);
+			}
+			open.clear();
+			target = targetCell;
+			setCost(source, 0, -1);
+			open.add(source, key(source));
+		}
+
+		int getCost(int cell){
+			return seenStamp[cell] == generation ? cost[cell] : INFINITY;
+		}
+
+		void setCost(int cell, int cellCost, int parentCell){
+			seenStamp[cell] = generation;
+			cost[cell] = cellCost;
+			parent[cell] = parentCell;
+		}
+
+		/**
+		 * @return the smallest f value left on the open list
+		 */
+		int minF(){
+			return open.isEmpty() ? INFINITY : cost[open.peek()] + distance(open.peek(), target);
+		}
+
+		/**
+		 * Lowest f first with ties going to the cell furthest from where this side started.
+		 */
+		long key(int cell){
+			return ((long) (cost[cell] + distance(cell, target)) << 32) - cost[cell];
+		}
+	}
+
+	public BidirectionalAstar(ObstacleGrid grid){
+		this(grid, false);
+	}
+
+	/**
+	 * @param bucketQueue true to keep both open lists in a BucketQueue rather than a heap
+	 */
+	public BidirectionalAstar(ObstacleGrid grid, boolean bucketQueue){
+		this.grid = grid;
+		int size = grid.size();
+		this.forward = new Frontier(size, bucketQueue);
+		this.backward = new Frontier(size, bucketQueue);
+		this.path = new int[size];
+	}
+
+	/**
+	 * Search from the start to the goal. On success the path is available from
+	 * getPath/getPathLength with the first move first and neither the start nor the goal included.
+	 *
+	 * @return true if the goal can be reached from the start
+	 */
+	public boolean search(int start, int goal){
+		expansions = 0;
+		pathLength = 0;
+		forward.begin(start, goal);
+		backward.begin(goal, start);
+
+		int best = INFINITY;
+		int meet = -1;
+		while(!forward.open.isEmpty() && !backward.open.isEmpty()){
+			if(best <= Math.max(forward.minF(), backward.minF())){
+				break;
+			}
+			Frontier side = forward.open.size() <= backward.open.size() ? forward : backward;
+			Frontier other = side == forward ? backward : forward;
+			int current = side.open.poll();
+			side.closedStamp[current] = side.generation;
+			expansions++;
+
+			int nextCost = side.cost[current] + 1;
+			int x = current % grid.xExtent;
+			int y = current / grid.xExtent;
+			for(int d = 0; d < SearchContext.DX.length; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(!grid.inBounds(nx, ny)){
+					continue;
+				}
+				int next = grid.cellIndex(nx, ny);
+				if(side.closedStamp[next] == side.generation || grid.isBlocked(next) || nextCost >= side.getCost(next)){
+					continue;
+				}
+				side.setCost(next, nextCost, current);
+				side.open.update(next, side.key(next));
+				int total = nextCost + other.getCost(next);
+				if(total < best){
+					best = total;
+					meet = next;
+				}
+			}
+		}
+
+		if(meet == -1){
+			return false;
+		}
+		tracePath(start, goal, meet);
+		return true;
+	}
+
+	public int[] getPath(){
+		return path;
+	}
+
+	public int getPathLength(){
+		return pathLength;
+	}
+
+	/**
+	 * @return the number of cells expanded by the last search, both sides together
+	 */
+	public int getExpansions(){
+		return expansions;
+	}
+
+	/**
+	 * @return the open list of the side searching from the start, whose counts cover every search
+	 */
+	public OpenList getForwardOpen(){
+		return forward.open;
+	}
+
+	/**
+	 * @return the open list of the side searching from the goal, whose counts cover every search
+	 */
+	public OpenList getBackwardOpen(){
+		return backward.open;
+	}
+
+	/**
+	 * Join the forward parents back from the meeting cell to the backward parents on to the goal.
+	 */
+	private void tracePath(int start, int goal, int meet){
+		for(int cell = meet; cell != -1; cell = forward.parent[cell]){
+			path[pathLength++] = cell;
+		}
+		// The forward half went in backwards so flip it
+		for(int i = 0, j = pathLength - 1; i < j; i++, j--){
+			int swap = path[i];
+			path[i] = path[j];
+			path[j] = swap;
+		}
+		for(int cell = backward.parent[meet]; cell != -1; cell = backward.parent[cell]){
+			path[pathLength++] = cell;
+		}
+		// Drop the start and the goal from the ends
+		System.arraycopy(path, 1, path, 0, pathLength - 2);
+		pathLength -= 2;
+	}
+
+	private int distance(int cellA, int cellB){
+		return Math.max(Math.abs(cellA % grid.xExtent - cellB % grid.xExtent), Math.abs(cellA / grid.xExtent - cellB / grid.xExtent));
+	}
+}
@@ -0,0 +1,189 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * An open list for searches whose f-costs are small whole numbers, as they are on a grid where
+ * every move costs 1 (Dial's algorithm). Cells go into a bucket per value of the high 32 bits of
+ * their key and come out of the lowest bucket that has any, so adding and removing are O(1) and
+ * polling only ever scans forward over empty buckets.
+ *
+ * Cells in the same bucket come out last in first out instead of by the low bits of their keys.
+ * The cells added last are the children of the latest expansion, which are the ones with the
+ * highest cost so far, so this breaks ties towards the goal like a -g tie breaker does without
+ * having to order them. Keys have to be non-negative.
+ */
+public class BucketQueue implements OpenList {
+	private static final int NONE = -1;
+
+	// bucket -> first cell in the bucket or NONE
+	private int[] heads = new int[64];
+	// cell -> the cells before and after it in its bucket
+	private final int[] next;
+	private final int[] previous;
+	// cell -> bucket or NONE when the cell is not queued
+	private final int[] buckets;
+	// cell -> key, only meaningful while the cell is queued
+	private final long[] keys;
+	private int size;
+	// every bucket below lowest is empty, none above highest has been used since the last clear
+	private int lowest;
+	private int highest;
+	// operation counts over the queue's whole life, for metrics
+	private long addCount;
+	private long decreaseCount;
+	private long pollCount;
+
+	/**
+	 * @param capacity the number of cells on the map (xExtent * yExtent)
+	 */
+	public BucketQueue(int capacity){
+		this.next = new int[capacity];
+		this.previous = new int[capacity];
+		this.buckets = new int[capacity];
+		this.keys = new long[capacity];
+		Arrays.fill(heads, NONE);
+		Arrays.fill(buckets, NONE);
+		lowest = heads.length;
+		highest = -1;
+	}
+
+	public int capacity(){
+		return buckets.length;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	public boolean contains(int cell){
+		return buckets[cell] != NONE;
+	}
+
+	public long getKey(int cell){
+		return keys[cell];
+	}
+
+	public void add(int cell, long key){
+		link(cell, key);
+		addCount++;
+	}
+
+	public void decreaseKey(int cell, long key){
+		if(key < keys[cell]){
+			unlink(cell);
+			link(cell, key);
+			decreaseCount++;
+		}
+	}
+
+	public void update(int cell, long key){
+		if(!contains(cell)){
+			add(cell, key);
+		} else if(key != keys[cell]){
+			if(key < keys[cell]){
+				decreaseCount++;
+			}
+			unlink(cell);
+			link(cell, key);
+		}
+	}
+
+	public int peek(){
+		while(heads[lowest] == NONE){
+			lowest++;
+		}
+		return heads[lowest];
+	}
+
+	public long peekKey(){
+		return keys[peek()];
+	}
+
+	public int poll(){
+		int top = peek();
+		unlink(top);
+		pollCount++;
+		return top;
+	}
+
+	public void remove(int cell){
+		if(contains(cell)){
+			unlink(cell);
+		}
+	}
+
+	/**
+	 * Empty the queue. Only touches the buckets used since the last clear.
+	 */
+	public void clear(){
+		for(int bucket = lowest; bucket <= highest; bucket++){
+			for(int cell = heads[bucket]; cell != NONE; cell = next[cell]){
+				buckets[cell] = NONE;
+			}
+			heads[bucket] = NONE;
+		}
+		size = 0;
+		lowest = heads.length;
+		highest = -1;
+	}
+
+	public long getAddCount(){
+		return addCount;
+	}
+
+	public long getDecreaseCount(){
+		return decreaseCount;
+	}
+
+	public long getPollCount(){
+		return pollCount;
+	}
+
+	private void link(int cell, long key){
+		int bucket = bucketOf(key);
+		if(bucket >= heads.length){
+			int oldLength = heads.length;
+			heads = Arrays.copyOf(heads, Math.max(oldLength * 2, bucket + 1));
+			Arrays.fill(heads, oldLength, heads.length, NONE);
+		}
+		keys[cell] = key;
+		buckets[cell] = bucket;
+		previous[cell] = NONE;
+		next[cell] = heads[bucket];
+		if(heads[bucket] != NONE){
+			previous[heads[bucket]] = cell;
+		}
+		heads[bucket] = cell;
+		size++;
+		lowest = Math.min(lowest, bucket);
+		highest = Math.max(highest, bucket);
+	}
+
+	private void unlink(int cell){
+		int before = previous[cell];
+		int after = next[cell];
+		if(before == NONE){
+			heads[buckets[cell]] = after;
+		} else {
+			next[before] = after;
+		}
+		if(after != NONE){
+			previous[after] = before;
+		}
+		buckets[cell] = NONE;
+		size--;
+	}
+
+	private static int bucketOf(long key){
+		long bucket = key >> 32;
+		if(bucket < 0 || bucket >= Integer.MAX_VALUE){
+			throw new IllegalArgumentException("key " + key + " is out of range for a bucket queue");
+		}
+		return (int) bucket;
+	}
+}
@@ -0,0 +1,250 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Labels the open areas of an ObstacleGrid with a union-find so whether one cell can be reached
+ * from another is answered in (almost) constant time, before any search is started.
+ *
+ * Freeing a cell just merges it with its open neighbours. Blocking a cell can only split its area
+ * if the cell was holding it together, which is checked by looking at the ring of eight cells
+ * around it. Only then is that one area relabelled; blocking a cell in the middle of a room or
+ * along a wall costs nothing extra.
+ *
+ * A union-find can not take a cell back out of a set, so each cell points at a node of the
+ * union-find and a freed cell gets a brand new node. The node it had before is left behind and
+ * still holds together the cells that were joined through it, which is correct as long as the
+ * area did not split (and if it did, it was relabelled).
+ */
+public class ConnectedComponents {
+	// Ring order around a cell: N, NE, E, SE, S, SW, W, NW (same as SearchContext.DX/DY)
+	private static final int RING = 8;
+
+	private final ObstacleGrid grid;
+	// cell -> its current union-find node
+	private final int[] node;
+	private final int[] parent;
+	private final int[] rank;
+	// the next fresh node, everything is rebuilt when they run out
+	private int nextNode;
+
+	// scratch for relabelling
+	private final int[] queue;
+	private final int[] visitedStamp;
+	private int visitedGeneration;
+	private final boolean[] ringOpen = new boolean[RING];
+	private final boolean[] ringReached = new boolean[RING];
+	private final int[] ringStack = new int[RING];
+
+	public ConnectedComponents(ObstacleGrid grid){
+		this.grid = grid;
+		int size = grid.size();
+		this.node = new int[size];
+		this.parent = new int[2 * size];
+		this.rank = new int[2 * size];
+		this.queue = new int[size];
+		this.visitedStamp = new int[size];
+		build();
+	}
+
+	/**
+	 * Label every open cell from scratch.
+	 */
+	public void build(){
+		for(int cell = 0; cell < node.length; cell++){
+			node[cell] = cell;
+			parent[cell] = cell;
+			rank[cell] = 0;
+		}
+		nextNode = node.length;
+		for(int y = 0; y < grid.yExtent; y++){
+			for(int x = 0; x < grid.xExtent; x++){
+				int cell = grid.cellIndex(x, y);
+				if(grid.isBlocked(cell)){
+					continue;
+				}
+				// Each pair of neighbours only needs joining once so only look forwards
+				unionIfOpen(cell, x + 1, y);
+				unionIfOpen(cell, x - 1, y + 1);
+				unionIfOpen(cell, x, y + 1);
+				unionIfOpen(cell, x + 1, y + 1);
+			}
+		}
+	}
+
+	/**
+	 * @return true if both cells are open and there is a path between them
+	 */
+	public boolean isReachable(int from, int to){
+		return !grid.isBlocked(from) && !grid.isBlocked(to) && find(node[from]) == find(node[to]);
+	}
+
+	/**
+	 * @return an id shared by every cell of the same open area
+	 */
+	public int componentOf(int cell){
+		return find(node[cell]);
+	}
+
+	/**
+	 * Update the labels after a cell was blocked in the grid.
+	 */
+	public void cellBlocked(int cell){
+		if(!mightSplit(cell)){
+			// The open neighbours still touch each other so the area stays in one piece
+			return;
+		}
+
+		// Give every piece the area breaks into its own label, reachable from one of the neighbours
+		visitedGeneration++;
+		visitedStamp[cell] = visitedGeneration;
+		int x = cell % grid.xExtent;
+		int y = cell / grid.xExtent;
+		for(int d = 0; d < RING; d++){
+			int nx = x + SearchContext.DX[d];
+			int ny = y + SearchContext.DY[d];
+			if(isOpen(nx, ny)){
+				int neighbour = grid.cellIndex(nx, ny);
+				if(visitedStamp[neighbour] != visitedGeneration){
+					relabel(neighbour);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Update the labels after a cell was freed in the grid.
+	 */
+	public void cellFreed(int cell){
+		if(nextNode == parent.length){
+			build();
+			return;
+		}
+		int fresh = nextNode++;
+		node[cell] = fresh;
+		parent[fresh] = fresh;
+		rank[fresh] = 0;
+		int x = cell % grid.xExtent;
+		int y = cell / grid.xExtent;
+		for(int d = 0; d < RING; d++){
+			unionIfOpen(cell, x + SearchContext.DX[d], y + SearchContext.DY[d]);
+		}
+	}
+
+	/**
+	 * Flood the piece containing start and point every cell in it at the node of start.
+	 */
+	private void relabel(int start){
+		int root = node[start];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = start;
+		visitedStamp[start] = visitedGeneration;
+		parent[root] = root;
+		rank[root] = 1;
+		while(head < tail){
+			int current = queue[head++];
+			int x = current % grid.xExtent;
+			int y = current / grid.xExtent;
+			for(int d = 0; d < RING; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(!isOpen(nx, ny)){
+					continue;
+				}
+				int next = grid.cellIndex(nx, ny);
+				if(visitedStamp[next] != visitedGeneration){
+					visitedStamp[next] = visitedGeneration;
+					parent[node[next]] = root;
+					rank[node[next]] = 0;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Blocking a cell can only disconnect its area if its open neighbours fall into more than one
+	 * group when they are only allowed to connect to each other.
+	 */
+	private boolean mightSplit(int cell){
+		int x = cell % grid.xExtent;
+		int y = cell / grid.xExtent;
+		boolean[] open = ringOpen;
+		int firstOpen = -1;
+		for(int d = 0; d < RING; d++){
+			open[d] = isOpen(x + SearchContext.DX[d], y + SearchContext.DY[d]);
+			if(open[d] && firstOpen == -1){
+				firstOpen = d;
+			}
+		}
+		if(firstOpen == -1){
+			return false;
+		}
+		// Flood the ring: neighbours next to each other in the ring touch, and so do two
+		// orthogonal neighbours a quarter turn apart (N and E are diagonal to each other)
+		boolean[] reached = ringReached;
+		Arrays.fill(reached, false);
+		int[] stack = ringStack;
+		int size = 0;
+		stack[size++] = firstOpen;
+		reached[firstOpen] = true;
+		while(size > 0){
+			int d = stack[--size];
+			// Even ring positions are the orthogonal neighbours
+			int steps = d % 2 == 0 ? 2 : 1;
+			for(int step = 1; step <= steps; step++){
+				int clockwise = (d + step) % RING;
+				int counterClockwise = (d + RING - step) % RING;
+				if(open[clockwise] && !reached[clockwise]){
+					reached[clockwise] = true;
+					stack[size++] = clockwise;
+				}
+				if(open[counterClockwise] && !reached[counterClockwise]){
+					reached[counterClockwise] = true;
+					stack[size++] = counterClockwise;
+				}
+			}
+		}
+		for(int d = 0; d < RING; d++){
+			if(open[d] && !reached[d]){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void unionIfOpen(int cell, int x, int y){
+		if(isOpen(x, y)){
+			union(node[cell], node[grid.cellIndex(x, y)]);
+		}
+	}
+
+	private boolean isOpen(int x, int y){
+		return grid.inBounds(x, y) && !grid.isBlocked(grid.cellIndex(x, y));
+	}
+
+	private int find(int n){
+		while(parent[n] != n){
+			parent[n] = parent[parent[n]];
+			n = parent[n];
+		}
+		return n;
+	}
+
+	private void union(int a, int b){
+		int rootA = find(a);
+		int rootB = find(b);
+		if(rootA == rootB){
+			return;
+		}
+		if(rank[rootA] < rank[rootB]){
+			parent[rootA] = rootB;
+		} else if(rank[rootA] > rank[rootB]){
+			parent[rootB] = rootA;
+		} else {
+			parent[rootB] = rootA;
+			rank[rootA]++;
+		}
+	}
+}
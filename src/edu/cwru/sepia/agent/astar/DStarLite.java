@@ -0,0 +1,251 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * D* Lite (Koenig and Likhachev) over an 8-connected grid where every move costs 1.
+ *
+ * The search runs backwards from the goal to the start and keeps its cost estimates (g and rhs)
+ * between calls. When cells of the ObstacleGrid become blocked or free only those cells and their
+ * neighbours are made inconsistent again, so replanning after the enemy footman steps somewhere
+ * else repairs the part of the tree the move affected instead of searching the whole map again.
+ * The start is allowed to move between calls as the footman walks along the path.
+ */
+public class DStarLite {
+	private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+	private final int xExtent;
+	private final int yExtent;
+
+	private final ObstacleGrid grid;
+	// cost to the goal as of the last expansion of the cell
+	private final int[] g;
+	// one step lookahead cost to the goal
+	private final int[] rhs;
+	private final IndexedMinHeap open;
+
+	// cells that changed since the last plan
+	private final int[] changed;
+	private int changedCount;
+
+	private int goal = -1;
+	private int start;
+	private int lastStart;
+	// accumulated heuristic drift from the start moving
+	private int km;
+
+	private final int[] path;
+	private int pathLength;
+	private int expansions;
+
+	public DStarLite(ObstacleGrid grid){
+		this.grid = grid;
+		this.xExtent = grid.xExtent;
+		this.yExtent = grid.yExtent;
+		int size = xExtent * yExtent;
+		this.g = new int[size];
+		this.rhs = new int[size];
+		this.open = new IndexedMinHeap(size);
+		this.changed = new int[size];
+		this.path = new int[size];
+	}
+
+	/**
+	 * Tell the planner a cell was blocked or freed in the grid. The search tree is repaired on
+	 * the next call to plan.
+	 */
+	public void cellChanged(int cell){
+		if(changedCount < changed.length){
+			changed[changedCount++] = cell;
+		}
+	}
+
+	/**
+	 * Bring the search tree up to date with the obstacle changes since the last call and
+	 * extract a path. On success the path is available from getPath/getPathLength with the
+	 * first move first and neither the start nor the goal included.
+	 *
+	 * @return true if the goal can be reached from the start
+	 */
+	public boolean plan(int startCell, int goalCell){
+		expansions = 0;
+		start = startCell;
+		if(goal != goalCell){
+			initialize(goalCell);
+		} else {
+			km += heuristic(lastStart, start);
+			for(int i = 0; i < changedCount; i++){
+				int cell = changed[i];
+				updateVertex(cell);
+				int x = cell % xExtent;
+				int y = cell / xExtent;
+				for(int d = 0; d < SearchContext.DX.length; d++){
+					int nx = x + SearchContext.DX[d];
+					int ny = y + SearchContext.DY[d];
+					if(inBounds(nx, ny)){
+						updateVertex(nx + ny * xExtent);
+					}
+				}
+			}
+		}
+		changedCount = 0;
+		lastStart = start;
+
+		computeShortestPath();
+		return extractPath();
+	}
+
+	public int[] getPath(){
+		return path;
+	}
+
+	public int getPathLength(){
+		return pathLength;
+	}
+
+	/**
+	 * @return the number of cells expanded by the last call to plan
+	 */
+	public int getExpansions(){
+		return expansions;
+	}
+
+	/**
+	 * @return the open list, whose counts cover every search this planner has run
+	 */
+	public OpenList getOpen(){
+		return open;
+	}
+
+	private void initialize(int goalCell){
+		goal = goalCell;
+		km = 0;
+		open.clear();
+		Arrays.fill(g, INFINITY);
+		Arrays.fill(rhs, INFINITY);
+		rhs[goal] = 0;
+		open.add(goal, calculateKey(goal));
+	}
+
+	private void computeShortestPath(){
+		while(!open.isEmpty() && (open.peekKey() < calculateKey(start) || rhs[start] != g[start])){
+			int u = open.peek();
+			long oldKey = open.peekKey();
+			long newKey = calculateKey(u);
+			expansions++;
+			if(oldKey < newKey){
+				// The key went stale because the start moved
+				open.update(u, newKey);
+			} else if(g[u] > rhs[u]){
+				// Overconsistent: the cell got cheaper, settle it and tell the neighbours
+				g[u] = rhs[u];
+				open.poll();
+				updateNeighbours(u);
+			} else {
+				// Underconsistent: the cell got more expensive, start over from its lookahead
+				g[u] = INFINITY;
+				updateVertex(u);
+				updateNeighbours(u);
+			}
+		}
+	}
+
+	private void updateNeighbours(int cell){
+		int x = cell % xExtent;
+		int y = cell / xExtent;
+		for(int d = 0; d < SearchContext.DX.length; d++){
+			int nx = x + SearchContext.DX[d];
+			int ny = y + SearchContext.DY[d];
+			if(inBounds(nx, ny)){
+				updateVertex(nx + ny * xExtent);
+			}
+		}
+	}
+
+	private void updateVertex(int cell){
+		if(cell != goal){
+			rhs[cell] = lookahead(cell);
+		}
+		if(g[cell] != rhs[cell]){
+			open.update(cell, calculateKey(cell));
+		} else {
+			open.remove(cell);
+		}
+	}
+
+	/**
+	 * @return the cheapest cost to the goal through any neighbour
+	 */
+	private int lookahead(int cell){
+		if(grid.isBlocked(cell)){
+			return INFINITY;
+		}
+		int best = INFINITY;
+		int x = cell % xExtent;
+		int y = cell / xExtent;
+		for(int d = 0; d < SearchContext.DX.length; d++){
+			int nx = x + SearchContext.DX[d];
+			int ny = y + SearchContext.DY[d];
+			if(inBounds(nx, ny)){
+				int neighbour = nx + ny * xExtent;
+				if(!grid.isBlocked(neighbour) && g[neighbour] + 1 < best){
+					best = g[neighbour] + 1;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Follow the cheapest neighbours from the start down to the goal.
+	 */
+	private boolean extractPath(){
+		pathLength = 0;
+		if(rhs[start] >= INFINITY){
+			return false;
+		}
+		int current = start;
+		while(pathLength < path.length){
+			int x = current % xExtent;
+			int y = current / xExtent;
+			int next = -1;
+			int best = INFINITY;
+			for(int d = 0; d < SearchContext.DX.length; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(inBounds(nx, ny)){
+					int neighbour = nx + ny * xExtent;
+					if(!grid.isBlocked(neighbour) && g[neighbour] < best){
+						best = g[neighbour];
+						next = neighbour;
+					}
+				}
+			}
+			if(next == -1){
+				pathLength = 0;
+				return false;
+			}
+			if(next == goal){
+				return true;
+			}
+			path[pathLength++] = next;
+			current = next;
+		}
+		pathLength = 0;
+		return false;
+	}
+
+	private long calculateKey(int cell){
+		int min = Math.min(g[cell], rhs[cell]);
+		long primary = (long) min + heuristic(start, cell) + km;
+		return (primary << 32) | min;
+	}
+
+	private int heuristic(int cellA, int cellB){
+		return Math.max(Math.abs(cellA % xExtent - cellB % xExtent), Math.abs(cellA / xExtent - cellB / xExtent));
+	}
+
+	private boolean inBounds(int x, int y){
+		return x >= 0 && y >= 0 && x < xExtent && y < yExtent;
+	}
+}
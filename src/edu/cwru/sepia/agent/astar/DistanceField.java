@@ -0,0 +1,265 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * The number of moves from every cell to one goal cell, found with a breadth first search
+ * outwards from the goal over an ObstacleGrid. A unit anywhere on the map can walk to the goal by
+ * always stepping to the neighbour with the smallest distance, so the next move is a lookup
+ * instead of a search.
+ *
+ * When a cell is blocked or freed the field is repaired rather than rebuilt. Cells that lose the
+ * neighbour they were counting on are raised and then lowered again from the cells around them
+ * that are still correct, so the work done is proportional to the area whose distance changed.
+ */
+public class DistanceField {
+	public static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+	private final ObstacleGrid grid;
+	private final int[] distance;
+	private int goal = -1;
+
+	// scratch for repairs
+	private final int[] queue;
+	private final int[] raisedStamp;
+	private int raisedGeneration;
+	private final IndexedMinHeap open;
+	// cells whose distance was recomputed by the last build or repair
+	private int lastUpdateSize;
+
+	public DistanceField(ObstacleGrid grid){
+		this.grid = grid;
+		int size = grid.size();
+		this.distance = new int[size];
+		this.queue = new int[size];
+		this.raisedStamp = new int[size];
+		this.open = new IndexedMinHeap(size);
+		Arrays.fill(distance, UNREACHABLE);
+	}
+
+	/**
+	 * Compute the whole field for a new goal.
+	 */
+	public void build(int goalCell){
+		goal = goalCell;
+		Arrays.fill(distance, UNREACHABLE);
+		distance[goal] = 0;
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = goal;
+		while(head < tail){
+			int current = queue[head++];
+			int x = current % grid.xExtent;
+			int y = current / grid.xExtent;
+			for(int d = 0; d < SearchContext.DX.length; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(!grid.inBounds(nx, ny)){
+					continue;
+				}
+				int next = grid.cellIndex(nx, ny);
+				if(distance[next] == UNREACHABLE && !grid.isBlocked(next)){
+					distance[next] = distance[current] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		lastUpdateSize = tail;
+	}
+
+	public int getGoal(){
+		return goal;
+	}
+
+	/**
+	 * @return moves from the cell to the goal or UNREACHABLE
+	 */
+	public int getDistance(int cell){
+		return distance[cell];
+	}
+
+	/**
+	 * @return the neighbour one move closer to the goal, or -1 if the cell is next to the goal
+	 * (or the goal can not be reached from it)
+	 */
+	public int nextStep(int cell){
+		int d = nextDirection(cell);
+		if(d == -1){
+			return -1;
+		}
+		return grid.cellIndex(cell % grid.xExtent + SearchContext.DX[d], cell / grid.xExtent + SearchContext.DY[d]);
+	}
+
+	/**
+	 * @return the direction of the neighbour one move closer to the goal as an index into
+	 * SearchContext.DX/DY (the same order as Direction.values()), or -1 if the cell is next to the
+	 * goal (or the goal can not be reached from it)
+	 */
+	public int nextDirection(int cell){
+		if(distance[cell] <= 1 || distance[cell] >= UNREACHABLE){
+			return -1;
+		}
+		int x = cell % grid.xExtent;
+		int y = cell / grid.xExtent;
+		int best = -1;
+		int bestDistance = distance[cell];
+		for(int d = 0; d < SearchContext.DX.length; d++){
+			int nx = x + SearchContext.DX[d];
+			int ny = y + SearchContext.DY[d];
+			if(grid.inBounds(nx, ny)){
+				int next = grid.cellIndex(nx, ny);
+				if(distance[next] < bestDistance){
+					bestDistance = distance[next];
+					best = d;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the number of cells the last build or repair had to touch
+	 */
+	public int getLastUpdateSize(){
+		return lastUpdateSize;
+	}
+
+	/**
+	 * @return the open list, whose counts cover every search this planner has run
+	 */
+	public OpenList getOpen(){
+		return open;
+	}
+
+	/**
+	 * Repair the field after the cell was blocked or freed in the grid.
+	 */
+	public void cellChanged(int cell){
+		if(goal == -1 || cell == goal){
+			return;
+		}
+		lastUpdateSize = 0;
+		open.clear();
+		if(grid.isBlocked(cell)){
+			if(distance[cell] != UNREACHABLE){
+				raiseFrom(cell);
+			}
+		} else {
+			distance[cell] = lookahead(cell);
+			if(distance[cell] != UNREACHABLE){
+				open.add(cell, distance[cell]);
+			}
+		}
+		lower();
+	}
+
+	/**
+	 * Mark the blocked cell and every cell that depended on it as unreachable, then queue those
+	 * that can still be reached through a neighbour that kept its distance.
+	 */
+	private void raiseFrom(int cell){
+		raisedGeneration++;
+		int head = 0;
+		int tail = 0;
+		distance[cell] = UNREACHABLE;
+		raisedStamp[cell] = raisedGeneration;
+		queue[tail++] = cell;
+		while(head < tail){
+			int current = queue[head++];
+			int x = current % grid.xExtent;
+			int y = current / grid.xExtent;
+			for(int d = 0; d < SearchContext.DX.length; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(!grid.inBounds(nx, ny)){
+					continue;
+				}
+				int next = grid.cellIndex(nx, ny);
+				if(next == goal || raisedStamp[next] == raisedGeneration || distance[next] == UNREACHABLE){
+					continue;
+				}
+				if(!hasSupport(next)){
+					distance[next] = UNREACHABLE;
+					raisedStamp[next] = raisedGeneration;
+					queue[tail++] = next;
+				}
+			}
+		}
+		lastUpdateSize += tail;
+
+		for(int i = 0; i < tail; i++){
+			int raised = queue[i];
+			if(!grid.isBlocked(raised)){
+				int best = lookahead(raised);
+				if(best != UNREACHABLE){
+					distance[raised] = best;
+					open.update(raised, best);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if a neighbour still has a distance one less than the cell
+	 */
+	private boolean hasSupport(int cell){
+		int x = cell % grid.xExtent;
+		int y = cell / grid.xExtent;
+		for(int d = 0; d < SearchContext.DX.length; d++){
+			int nx = x + SearchContext.DX[d];
+			int ny = y + SearchContext.DY[d];
+			if(grid.inBounds(nx, ny)){
+				int next = grid.cellIndex(nx, ny);
+				if(distance[next] == distance[cell] - 1 && raisedStamp[next] != raisedGeneration){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Spread shorter distances outwards from the queued cells.
+	 */
+	private void lower(){
+		while(!open.isEmpty()){
+			int current = open.poll();
+			lastUpdateSize++;
+			int x = current % grid.xExtent;
+			int y = current / grid.xExtent;
+			int nextDistance = distance[current] + 1;
+			for(int d = 0; d < SearchContext.DX.length; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(!grid.inBounds(nx, ny)){
+					continue;
+				}
+				int next = grid.cellIndex(nx, ny);
+				if(nextDistance < distance[next] && !grid.isBlocked(next)){
+					distance[next] = nextDistance;
+					open.update(next, nextDistance);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return one more than the smallest distance of any neighbour
+	 */
+	private int lookahead(int cell){
+		int x = cell % grid.xExtent;
+		int y = cell / grid.xExtent;
+		int best = UNREACHABLE;
+		for(int d = 0; d < SearchContext.DX.length; d++){
+			int nx = x + SearchContext.DX[d];
+			int ny = y + SearchContext.DY[d];
+			if(grid.inBounds(nx, ny)){
+				int next = grid.cellIndex(nx, ny);
+				if(distance[next] + 1 < best){
+					best = distance[next] + 1;
+				}
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,94 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Distance fields over one ObstacleGrid kept by target cell, so every unit heading for the same
+ * target reads its moves from one field instead of searching on its own. Building a field costs
+ * about as much as one A* run that has to look at the whole map, after that each unit's next
+ * move is a lookup no matter how many units there are.
+ *
+ * Every cached field is repaired when a cell of the grid changes, which only touches the area
+ * whose distances changed. When the cache is full the field used longest ago is rebuilt for the
+ * new target so its arrays are reused.
+ */
+public class FlowFieldCache {
+	private final ObstacleGrid grid;
+	private final int capacity;
+	// target cell -> field, least recently used first
+	private final LinkedHashMap<Integer, DistanceField> fields = new LinkedHashMap<Integer, DistanceField>(16, 0.75f, true);
+	private int builds;
+
+	/**
+	 * @param capacity the most targets kept at once
+	 */
+	public FlowFieldCache(ObstacleGrid grid, int capacity){
+		if(capacity < 1){
+			throw new IllegalArgumentException("capacity must be at least 1 but was " + capacity);
+		}
+		this.grid = grid;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return the field for the target, built now if it is not cached
+	 */
+	public DistanceField getField(int target){
+		DistanceField field = fields.get(target);
+		if(field != null){
+			return field;
+		}
+		if(fields.size() < capacity){
+			field = new DistanceField(grid);
+		} else {
+			Iterator<DistanceField> eldest = fields.values().iterator();
+			field = eldest.next();
+			eldest.remove();
+		}
+		field.build(target);
+		builds++;
+		fields.put(target, field);
+		return field;
+	}
+
+	/**
+	 * @return true if the target has a field that is up to date
+	 */
+	public boolean contains(int target){
+		return fields.containsKey(target);
+	}
+
+	/**
+	 * Repair every cached field after the cell was blocked or freed in the grid.
+	 */
+	public void cellChanged(int cell){
+		for(DistanceField field : fields.values()){
+			field.cellChanged(cell);
+		}
+	}
+
+	public void clear(){
+		fields.clear();
+	}
+
+	public int size(){
+		return fields.size();
+	}
+
+	/**
+	 * @return the cached fields, least recently used first
+	 */
+	public Collection<DistanceField> getFields(){
+		return Collections.unmodifiableCollection(fields.values());
+	}
+
+	/**
+	 * @return the number of fields built from scratch, as opposed to repaired
+	 */
+	public int getBuilds(){
+		return builds;
+	}
+}
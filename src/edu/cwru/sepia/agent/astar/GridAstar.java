@@ -0,0 +1,341 @@
+package edu.cwru.sepia.agent.astar;
+
+/**
+ * Plain A* from one cell to another on the grid of a SearchContext, where every move to one of
+ * the eight neighbours costs 1. All of the search's state lives in the context so a search can be
+ * run a few expansions at a time, and one instance per context is all that is needed.
+ *
+ * The heuristic is the diagonal distance less one, since the goal is usually something to stand
+ * next to, raised to the ALT bound when landmarks are given. Both are admissible and consistent.
+ *
+ * The search can also be told to trade path length for speed with a bound w, so the path found is
+ * never more than w times the shortest:
+ * <ul>
+ * <li>Weighted A* orders the open list by g + w * h. With a consistent heuristic closed cells
+ * never have to be opened again for the bound to hold (Likhachev, Gordon and Thrun), but a
+ * cheaper way to one can still turn up. Those cells are kept aside as ARA* keeps its INCONS
+ * list.</li>
+ * <li>Focal search (Pearl and Kim's A*epsilon) keeps the open list by g + h and expands, of the
+ * cells within w times the smallest g + h, the one the heuristic puts closest to the goal. Cells
+ * it closes too early are opened again when a cheaper way to them turns up.</li>
+ * </ul>
+ * Each search also reports the bound it actually achieved, which is usually well under w: the
+ * path's cost over a lower bound on the shortest. Focal search takes the smallest g + h on the
+ * open list as that lower bound. Weighted A* has to take the smallest over the open list and the
+ * cells kept aside as well, as the shortest path may run through a closed cell whose g was too
+ * high.
+ */
+public class GridAstar {
+	// g + w * h is kept in fixed point so fractional weights still order correctly
+	private static final int F_SCALE = 256;
+
+	private final SearchContext context;
+	private final LandmarkHeuristic landmarks;
+	private int goal = -1;
+
+	private double bound = 1;
+	// the weight in fixed point, F_SCALE for plain A* and focal search
+	private int scaledWeight = F_SCALE;
+	private boolean focal;
+	// weighted A*: every open cell by g + h and every closed cell by the g + h of the cheapest way
+	// to it found after it was closed, for the lower bound
+	private BucketQueue lowerBounds;
+	// focal search: the open cells within the bound by h, and the rest by g + h
+	private IndexedMinHeap focalList;
+	private BucketQueue pending;
+	// focal search: cells with g + h up to here belong on the focal list, only ever goes up
+	private int focalLimit;
+	// the lower bound on the shortest path when the goal came out
+	private int lowerBound;
+
+	/**
+	 * @param landmarks landmark tables for the map or null to only use the diagonal distance
+	 */
+	public GridAstar(SearchContext context, LandmarkHeuristic landmarks){
+		this.context = context;
+		this.landmarks = landmarks;
+	}
+
+	public SearchContext getContext(){
+		return context;
+	}
+
+	/**
+	 * Run weighted A* from the next search on. A weight of 1 goes back to plain A*.
+	 *
+	 * @param weight at least 1, taken down to the nearest 1/256th so the bound is never looser
+	 */
+	public void setWeight(double weight){
+		if(!(weight >= 1)){
+			throw new IllegalArgumentException("weight must be at least 1 but was " + weight);
+		}
+		scaledWeight = (int) Math.floor(weight * F_SCALE);
+		bound = (double) scaledWeight / F_SCALE;
+		focal = false;
+		focalList = null;
+		pending = null;
+		lowerBounds = scaledWeight > F_SCALE ? new BucketQueue(context.xExtent * context.yExtent) : null;
+	}
+
+	/**
+	 * Run focal search with the bound from the next search on.
+	 *
+	 * @param focalBound at least 1, 1 is A* that breaks ties by the heuristic
+	 */
+	public void setFocalBound(double focalBound){
+		if(!(focalBound >= 1)){
+			throw new IllegalArgumentException("focal bound must be at least 1 but was " + focalBound);
+		}
+		int size = context.xExtent * context.yExtent;
+		bound = focalBound;
+		scaledWeight = F_SCALE;
+		focal = true;
+		lowerBounds = null;
+		focalList = new IndexedMinHeap(size);
+		pending = new BucketQueue(size);
+	}
+
+	/**
+	 * @return how many times the shortest path the search may return, 1 for plain A*
+	 */
+	public double getBound(){
+		return bound;
+	}
+
+	/**
+	 * @return how many times the shortest path the last path found is at most, from its length
+	 * and the lower bound the search ended with, 1 for plain A*. Never more than the bound the
+	 * search was run with, which holds whatever the lower bound says.
+	 */
+	public double getAchievedBound(){
+		if(!found() || lowerBound <= 0){
+			return 1;
+		}
+		return Math.max(1, Math.min(bound, (double) context.getCost(goal) / lowerBound));
+	}
+
+	/**
+	 * @return the cells focal search picks expansions from or null if it is not a focal search.
+	 * Its polls are the expansions, everything it is given has been added to the context's open
+	 * list first.
+	 */
+	public OpenList getFocal(){
+		return focalList;
+	}
+
+	/**
+	 * Search the whole way from the start to the goal. On success the path is available from the
+	 * context's getPath/getPathLength with the first move first and neither the start nor the goal
+	 * included.
+	 *
+	 * @return true if the goal can be reached
+	 */
+	public boolean search(int start, int goalCell){
+		begin(start, goalCell);
+		proceed(Integer.MAX_VALUE);
+		return found();
+	}
+
+	/**
+	 * Forget the last search and put the start on the open list. Nothing is expanded until
+	 * proceed is called.
+	 */
+	public void begin(int start, int goalCell){
+		goal = goalCell;
+		context.beginSearch();
+		if(lowerBounds != null){
+			lowerBounds.clear();
+		}
+		if(focal){
+			focalList.clear();
+			pending.clear();
+			focalLimit = 0;
+		}
+		context.setCost(start, 0, -1);
+		push(start, 0, estimate(start, goal));
+	}
+
+	/**
+	 * Expand at most maxExpansions cells of the current search.
+	 *
+	 * @return true once the search is over, found then has the answer
+	 */
+	public boolean proceed(int maxExpansions){
+		OpenList frontier = context.getOpen();
+		for(int i = 0; i < maxExpansions; i++){
+			if(frontier.isEmpty()){
+				// Every reachable cell has been looked at without seeing the goal
+				return true;
+			}
+			int current = poll();
+			if(current == goal){
+				context.tracePath(current);
+				return true;
+			}
+			expand(current);
+		}
+		return frontier.isEmpty();
+	}
+
+	/**
+	 * @return true if the finished search reached the goal
+	 */
+	public boolean found(){
+		// The goal only gets a cost once it has been put on the open list and it is the last thing polled
+		return goal != -1 && context.isSeen(goal);
+	}
+
+	/**
+	 * @return a lower bound on the moves needed to get next to the target from the cell
+	 */
+	public int estimate(int cell, int target){
+		// -1 as we are not trying to get to the target but rather adjacent to it, but never below 0
+		// so keys stay non-negative for a BucketQueue
+		int estimate = Math.max(context.distance(cell, target) - 1, 0);
+		if(landmarks != null){
+			// The landmarks also count the moves around walls
+			estimate = Math.max(estimate, landmarks.estimate(cell, target));
+		}
+		return estimate;
+	}
+
+	/**
+	 * Take the next cell to expand off the open list.
+	 */
+	private int poll(){
+		OpenList frontier = context.getOpen();
+		if(focal){
+			// The smallest g + h only goes up, as every cell added has at least its parent's
+			int best = frontier.peek();
+			int smallest = context.getCost(best) + estimate(best, goal);
+			focalLimit = Math.max(focalLimit, (int) Math.floor(bound * smallest));
+			while(!pending.isEmpty() && (pending.peekKey() >> 32) <= focalLimit){
+				int cell = pending.poll();
+				focalList.add(cell, focalKey(cell));
+			}
+			int current = focalList.poll();
+			frontier.remove(current);
+			lowerBound = smallest;
+			return current;
+		}
+		int current = frontier.poll();
+		if(lowerBounds != null){
+			if(current == goal){
+				lowerBound = (int) (lowerBounds.peekKey() >> 32);
+			}
+			lowerBounds.remove(current);
+		} else if(current == goal){
+			// Plain A* takes the goal out at its shortest distance
+			lowerBound = context.getCost(current);
+		}
+		return current;
+	}
+
+	/**
+	 * Put a cell that is not on the open list on it.
+	 */
+	private void push(int cell, int cost, int heuristic){
+		context.getOpen().add(cell, priority(cost, heuristic));
+		if(lowerBounds != null){
+			lowerBounds.add(cell, (long) (cost + heuristic) << 32);
+		}
+		if(focal){
+			if(cost + heuristic <= focalLimit){
+				focalList.add(cell, focalKey(cell));
+			} else {
+				pending.add(cell, (long) (cost + heuristic) << 32);
+			}
+		}
+	}
+
+	/**
+	 * Move a cell on the open list to the lower cost it has just been given.
+	 */
+	private void lower(int cell, int cost, int heuristic){
+		context.getOpen().decreaseKey(cell, priority(cost, heuristic));
+		if(lowerBounds != null){
+			lowerBounds.decreaseKey(cell, (long) (cost + heuristic) << 32);
+		}
+		if(focal){
+			if(focalList.contains(cell)){
+				focalList.decreaseKey(cell, focalKey(cell));
+			} else if(cost + heuristic <= focalLimit){
+				pending.remove(cell);
+				focalList.add(cell, focalKey(cell));
+			} else {
+				pending.decreaseKey(cell, (long) (cost + heuristic) << 32);
+			}
+		}
+	}
+
+	/**
+	 * Keep a closed cell in the lower bounds at the g + h of a cheaper way to it than the one it
+	 * was expanded with.
+	 */
+	private void inconsistent(int cell, int total){
+		long key = (long) total << 32;
+		if(lowerBounds.contains(cell)){
+			lowerBounds.decreaseKey(cell, key);
+		} else {
+			lowerBounds.add(cell, key);
+		}
+	}
+
+	private void expand(int current){
+		context.close(current);
+		int currentX = context.xOf(current);
+		int currentY = context.yOf(current);
+		int expandedCost = context.getCost(current) + 1;
+		OpenList frontier = context.getOpen();
+
+		for(int i = 0; i < SearchContext.DX.length; i++){
+			int expandedX = currentX + SearchContext.DX[i];
+			int expandedY = currentY + SearchContext.DY[i];
+			if(!context.inBounds(expandedX, expandedY)){
+				continue;
+			}
+			int expanded = context.cellIndex(expandedX, expandedY);
+			if(context.isBlocked(expanded)){
+				continue;
+			}
+			if(frontier.contains(expanded)){
+				// Seen but not explored, keep whichever way there is shorter
+				if(context.getCost(expanded) > expandedCost){
+					context.setCost(expanded, expandedCost, current);
+					lower(expanded, expandedCost, estimate(expanded, goal));
+				}
+			} else if(!context.isClosed(expanded)){
+				context.setCost(expanded, expandedCost, current);
+				push(expanded, expandedCost, estimate(expanded, goal));
+			} else if(context.getCost(expanded) > expandedCost){
+				if(focal){
+					// Focal search closed it before its shortest way in was known
+					context.setCost(expanded, expandedCost, current);
+					push(expanded, expandedCost, estimate(expanded, goal));
+				} else if(lowerBounds != null){
+					// Weighted A* leaves it closed, but the shortest path may run through it at this cost
+					inconsistent(expanded, expandedCost + estimate(expanded, goal));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lowest estimated total cost first with ties going to the cell that has come further, as it is
+	 * likely closer to the goal. Weighted A* puts the weighted estimate in the high bits instead.
+	 */
+	private long priority(int cost, int heuristic){
+		if(scaledWeight == F_SCALE){
+			return ((long) (cost + heuristic) << 32) - cost;
+		}
+		return (((long) cost * F_SCALE + (long) heuristic * scaledWeight) << 32) - cost;
+	}
+
+	/**
+	 * Closest to the goal by the heuristic first, then the lowest g + h.
+	 */
+	private long focalKey(int cell){
+		int heuristic = estimate(cell, goal);
+		return ((long) heuristic << 32) + context.getCost(cell) + heuristic;
+	}
+}
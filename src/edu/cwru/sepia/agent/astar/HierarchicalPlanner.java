@@ -0,0 +1,585 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical path finding (HPA*, Botea, Mueller and Schaeffer) over an ObstacleGrid.
+ *
+ * The map is cut into square clusters. Where two neighbouring clusters touch, a few pairs of open
+ * cells on either side of the border are picked as transitions (one in the middle of a short open
+ * stretch, one at each end of a long one, plus any diagonal-only crossings) and the distance
+ * between every two transitions of a cluster is found once with a search that stays inside the
+ * cluster. A query then only has to connect the start and goal to the transitions of their own
+ * clusters and search the resulting small abstract graph. The abstract path is turned back into
+ * cells a few segments at a time, just ahead of where the footman is walking.
+ *
+ * When a cell is blocked or freed, call obstacleChanged and only the borders and distances of the
+ * clusters around it are rebuilt.
+ *
+ * Paths are close to but not always as short as the ones A* finds.
+ */
+public class HierarchicalPlanner {
+	// open stretches of border at most this long get a single transition in the middle
+	private static final int SINGLE_TRANSITION_LENGTH = 5;
+
+	private final ObstacleGrid grid;
+	private final int clusterSize;
+	private final int clustersX;
+	private final int clustersY;
+
+	// transition cells of each cluster and the in-cluster distance between every two of them (-1 if none)
+	private final int[][] clusterNodes;
+	private final int[][] clusterDistances;
+	// cell -> index into its cluster's node list or -1
+	private final int[] nodeIndex;
+	// cell -> transition cells in other clusters one move away, null for most cells
+	private final int[][] partners;
+
+	// scratch for the abstract search and for refining segments
+	private final SearchContext context;
+	private final int[] bfsQueue;
+	private final int[] bfsDistance;
+	private final int[] bfsStamp;
+	private int bfsGeneration;
+
+	// the current query
+	private int startCell = -1;
+	private int goalCell = -1;
+	private int[] startDistances = new int[0];
+	private int[] goalDistances = new int[0];
+	private int startToGoal = -1;
+	private final int[] waypoints;
+	private int waypointCount;
+	private int nextWaypoint;
+
+	// cells refined by the last call to refine, first move first, goal not included
+	private final int[] path;
+	private int pathLength;
+
+	public HierarchicalPlanner(ObstacleGrid grid, int clusterSize){
+		this.grid = grid;
+		this.clusterSize = clusterSize;
+		this.clustersX = (grid.xExtent + clusterSize - 1) / clusterSize;
+		this.clustersY = (grid.yExtent + clusterSize - 1) / clusterSize;
+		int size = grid.size();
+		this.clusterNodes = new int[clustersX * clustersY][];
+		this.clusterDistances = new int[clustersX * clustersY][];
+		this.nodeIndex = new int[size];
+		Arrays.fill(nodeIndex, -1);
+		this.partners = new int[size][];
+		this.context = new SearchContext(grid);
+		this.bfsQueue = new int[size];
+		this.bfsDistance = new int[size];
+		this.bfsStamp = new int[size];
+		this.waypoints = new int[size];
+		this.path = new int[size];
+
+		for(int cy = 0; cy < clustersY; cy++){
+			for(int cx = 0; cx < clustersX; cx++){
+				linkEast(cx, cy);
+				linkSouth(cx, cy);
+				linkCorner(cx, cy, 1);
+				linkCorner(cx, cy, -1);
+			}
+		}
+		for(int cluster = 0; cluster < clusterNodes.length; cluster++){
+			rebuildCluster(cluster);
+		}
+	}
+
+	public int getClusterSize(){
+		return clusterSize;
+	}
+
+	/**
+	 * Rebuild the borders and in-cluster distances around a cell that was blocked or freed.
+	 */
+	public void obstacleChanged(int cell){
+		int cx = (cell % grid.xExtent) / clusterSize;
+		int cy = (cell / grid.xExtent) / clusterSize;
+
+		linkEast(cx, cy);
+		linkEast(cx - 1, cy);
+		linkSouth(cx, cy);
+		linkSouth(cx, cy - 1);
+		linkCorner(cx, cy, 1);
+		linkCorner(cx, cy, -1);
+		linkCorner(cx + 1, cy - 1, -1);
+		linkCorner(cx - 1, cy - 1, 1);
+
+		for(int dy = -1; dy <= 1; dy++){
+			for(int dx = -1; dx <= 1; dx++){
+				if(cx + dx >= 0 && cy + dy >= 0 && cx + dx < clustersX && cy + dy < clustersY){
+					rebuildCluster(clusterOf(cx + dx, cy + dy));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Search the abstract graph from start to goal. The path is not refined into cells yet,
+	 * call refine for that.
+	 *
+	 * @return true if the goal can be reached
+	 */
+	public boolean plan(int start, int goal){
+		startCell = start;
+		goalCell = goal;
+		waypointCount = 0;
+		nextWaypoint = 0;
+		pathLength = 0;
+
+		// Connect the start and goal to the transitions of their clusters
+		int startCluster = clusterOfCell(start);
+		int goalCluster = clusterOfCell(goal);
+		startDistances = distancesInCluster(start, startCluster, startDistances);
+		startToGoal = startCluster == goalCluster && bfsStamp[goal] == bfsGeneration ? bfsDistance[goal] : -1;
+		goalDistances = distancesInCluster(goal, goalCluster, goalDistances);
+
+		context.beginSearch();
+		OpenList open = context.getOpen();
+		context.setCost(start, 0, -1);
+		open.add(start, priority(0, start));
+		while(!open.isEmpty()){
+			int current = open.poll();
+			if(current == goal){
+				storeWaypoints();
+				return true;
+			}
+			context.close(current);
+			expandAbstract(current, startCluster, goalCluster);
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of abstract nodes closed by the last plan
+	 */
+	public int getExpansions(){
+		return context.getExpansions();
+	}
+
+	/**
+	 * @return the open list, whose counts cover every search this planner has run
+	 */
+	public OpenList getOpen(){
+		return context.getOpen();
+	}
+
+	public boolean hasMoreSegments(){
+		return nextWaypoint < waypointCount - 1;
+	}
+
+	/**
+	 * Turn the next few abstract segments into cells. The cells are available from
+	 * getPath/getPathLength with the first move first and the goal left out.
+	 *
+	 * @return false if a segment could not be walked, meaning the grid changed since the plan
+	 */
+	public boolean refine(int segments){
+		pathLength = 0;
+		for(int i = 0; i < segments && hasMoreSegments(); i++){
+			int from = waypoints[nextWaypoint];
+			int to = waypoints[nextWaypoint + 1];
+			if(context.distance(from, to) > 1 && !searchInCluster(from, to)){
+				pathLength = 0;
+				return false;
+			}
+			if(context.distance(from, to) > 1){
+				int[] segment = context.getPath();
+				for(int j = 0; j < context.getPathLength(); j++){
+					path[pathLength++] = segment[j];
+				}
+			}
+			if(to != goalCell){
+				path[pathLength++] = to;
+			}
+			nextWaypoint++;
+		}
+		return true;
+	}
+
+	public int[] getPath(){
+		return path;
+	}
+
+	public int getPathLength(){
+		return pathLength;
+	}
+
+	private void expandAbstract(int current, int startCluster, int goalCluster){
+		int cost = context.getCost(current);
+		int currentCluster = clusterOfCell(current);
+		if(current == startCell){
+			int[] nodes = clusterNodes[startCluster];
+			for(int j = 0; j < nodes.length; j++){
+				if(startDistances[j] >= 0){
+					relax(current, nodes[j], cost + startDistances[j]);
+				}
+			}
+			if(startToGoal >= 0){
+				relax(current, goalCell, cost + startToGoal);
+			}
+		} else if(nodeIndex[current] != -1){
+			int[] nodes = clusterNodes[currentCluster];
+			int[] distances = clusterDistances[currentCluster];
+			int i = nodeIndex[current];
+			for(int j = 0; j < nodes.length; j++){
+				int distance = distances[i * nodes.length + j];
+				if(j != i && distance >= 0){
+					relax(current, nodes[j], cost + distance);
+				}
+			}
+			if(currentCluster == goalCluster && goalDistances[i] >= 0){
+				relax(current, goalCell, cost + goalDistances[i]);
+			}
+		}
+		int[] across = partners[current];
+		if(across != null){
+			for(int j = 0; j < across.length; j++){
+				relax(current, across[j], cost + 1);
+			}
+		}
+	}
+
+	private void relax(int from, int to, int cost){
+		if(context.isClosed(to)){
+			return;
+		}
+		OpenList open = context.getOpen();
+		if(!open.contains(to)){
+			context.setCost(to, cost, from);
+			open.add(to, priority(cost, to));
+		} else if(cost < context.getCost(to)){
+			context.setCost(to, cost, from);
+			open.decreaseKey(to, priority(cost, to));
+		}
+	}
+
+	private long priority(int cost, int cell){
+		int estimate = cost + context.distance(cell, goalCell);
+		return ((long) estimate << 32) - cost;
+	}
+
+	private void storeWaypoints(){
+		int count = 0;
+		for(int cell = goalCell; cell != -1; cell = context.getParent(cell)){
+			count++;
+		}
+		int index = count;
+		for(int cell = goalCell; cell != -1; cell = context.getParent(cell)){
+			waypoints[--index] = cell;
+		}
+		waypointCount = count;
+	}
+
+	/**
+	 * A* between two cells of the same cluster without leaving the cluster. The cells in between
+	 * are left in the context's path buffer.
+	 */
+	private boolean searchInCluster(int from, int to){
+		int cluster = clusterOfCell(from);
+		int minX = (cluster % clustersX) * clusterSize;
+		int minY = (cluster / clustersX) * clusterSize;
+		int maxX = Math.min(minX + clusterSize, grid.xExtent);
+		int maxY = Math.min(minY + clusterSize, grid.yExtent);
+
+		context.beginSearch();
+		OpenList open = context.getOpen();
+		context.setCost(from, 0, -1);
+		open.add(from, ((long) context.distance(from, to) << 32));
+		while(!open.isEmpty()){
+			int current = open.poll();
+			if(current == to){
+				context.tracePath(to);
+				return true;
+			}
+			context.close(current);
+			int x = context.xOf(current);
+			int y = context.yOf(current);
+			int cost = context.getCost(current) + 1;
+			for(int d = 0; d < SearchContext.DX.length; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(nx < minX || ny < minY || nx >= maxX || ny >= maxY){
+					continue;
+				}
+				int next = context.cellIndex(nx, ny);
+				// The goal is a building so the footman can only walk into it at the very end
+				if(context.isClosed(next) || grid.isBlocked(next) || (next == goalCell && next != to)){
+					continue;
+				}
+				long key = ((long) (cost + context.distance(next, to)) << 32) - cost;
+				if(!open.contains(next)){
+					context.setCost(next, cost, current);
+					open.add(next, key);
+				} else if(cost < context.getCost(next)){
+					context.setCost(next, cost, current);
+					open.decreaseKey(next, key);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Breadth first search from a cell without leaving its cluster.
+	 *
+	 * @return the distance to each of the cluster's transitions (-1 if unreachable)
+	 */
+	private int[] distancesInCluster(int from, int cluster, int[] reuse){
+		int minX = (cluster % clustersX) * clusterSize;
+		int minY = (cluster / clustersX) * clusterSize;
+		int maxX = Math.min(minX + clusterSize, grid.xExtent);
+		int maxY = Math.min(minY + clusterSize, grid.yExtent);
+
+		bfsGeneration++;
+		int head = 0;
+		int tail = 0;
+		bfsQueue[tail++] = from;
+		bfsStamp[from] = bfsGeneration;
+		bfsDistance[from] = 0;
+		while(head < tail){
+			int current = bfsQueue[head++];
+			int x = current % grid.xExtent;
+			int y = current / grid.xExtent;
+			for(int d = 0; d < SearchContext.DX.length; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(nx < minX || ny < minY || nx >= maxX || ny >= maxY){
+					continue;
+				}
+				int next = nx + ny * grid.xExtent;
+				if(bfsStamp[next] == bfsGeneration || grid.isBlocked(next)){
+					continue;
+				}
+				bfsStamp[next] = bfsGeneration;
+				bfsDistance[next] = bfsDistance[current] + 1;
+				bfsQueue[tail++] = next;
+			}
+		}
+
+		int[] nodes = clusterNodes[cluster];
+		int[] distances = reuse.length >= nodes.length ? reuse : new int[nodes.length];
+		for(int j = 0; j < nodes.length; j++){
+			distances[j] = bfsStamp[nodes[j]] == bfsGeneration ? bfsDistance[nodes[j]] : -1;
+		}
+		return distances;
+	}
+
+	/**
+	 * Collect the transitions of a cluster and the distances between them.
+	 */
+	private void rebuildCluster(int cluster){
+		int minX = (cluster % clustersX) * clusterSize;
+		int minY = (cluster / clustersX) * clusterSize;
+		int maxX = Math.min(minX + clusterSize, grid.xExtent);
+		int maxY = Math.min(minY + clusterSize, grid.yExtent);
+
+		int[] old = clusterNodes[cluster];
+		if(old != null){
+			for(int j = 0; j < old.length; j++){
+				nodeIndex[old[j]] = -1;
+			}
+		}
+
+		int count = 0;
+		for(int y = minY; y < maxY; y++){
+			for(int x = minX; x < maxX; x++){
+				int[] across = partners[grid.cellIndex(x, y)];
+				if(across != null && across.length > 0){
+					count++;
+				}
+			}
+		}
+		int[] nodes = new int[count];
+		count = 0;
+		for(int y = minY; y < maxY; y++){
+			for(int x = minX; x < maxX; x++){
+				int cell = grid.cellIndex(x, y);
+				if(partners[cell] != null && partners[cell].length > 0){
+					nodeIndex[cell] = count;
+					nodes[count++] = cell;
+				}
+			}
+		}
+		clusterNodes[cluster] = nodes;
+
+		int[] distances = new int[nodes.length * nodes.length];
+		int[] row = new int[nodes.length];
+		for(int i = 0; i < nodes.length; i++){
+			row = distancesInCluster(nodes[i], cluster, row);
+			System.arraycopy(row, 0, distances, i * nodes.length, nodes.length);
+		}
+		clusterDistances[cluster] = distances;
+	}
+
+	/**
+	 * Find the transitions across the vertical border between cluster (cx, cy) and the one east of it.
+	 */
+	private void linkEast(int cx, int cy){
+		if(cx < 0 || cy < 0 || cx + 1 >= clustersX || cy >= clustersY){
+			return;
+		}
+		int west = clusterOf(cx, cy);
+		int east = clusterOf(cx + 1, cy);
+		int xa = (cx + 1) * clusterSize - 1;
+		int xb = xa + 1;
+		int y0 = cy * clusterSize;
+		int y1 = Math.min(y0 + clusterSize, grid.yExtent);
+
+		for(int y = y0; y < y1; y++){
+			removePartnersIn(grid.cellIndex(xa, y), east);
+			removePartnersIn(grid.cellIndex(xb, y), west);
+		}
+
+		int runStart = -1;
+		for(int y = y0; y <= y1; y++){
+			boolean open = y < y1 && isFree(xa, y) && isFree(xb, y);
+			if(open && runStart == -1){
+				runStart = y;
+			} else if(!open && runStart != -1){
+				addRun(xa, runStart, xb, runStart, 0, 1, y - runStart);
+				runStart = -1;
+			}
+		}
+		for(int y = y0; y + 1 < y1; y++){
+			boolean straight = (isFree(xa, y) && isFree(xb, y)) || (isFree(xa, y + 1) && isFree(xb, y + 1));
+			if(!straight){
+				if(isFree(xa, y) && isFree(xb, y + 1)){
+					addPair(grid.cellIndex(xa, y), grid.cellIndex(xb, y + 1));
+				}
+				if(isFree(xa, y + 1) && isFree(xb, y)){
+					addPair(grid.cellIndex(xa, y + 1), grid.cellIndex(xb, y));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the transitions across the horizontal border between cluster (cx, cy) and the one south of it.
+	 */
+	private void linkSouth(int cx, int cy){
+		if(cx < 0 || cy < 0 || cx >= clustersX || cy + 1 >= clustersY){
+			return;
+		}
+		int north = clusterOf(cx, cy);
+		int south = clusterOf(cx, cy + 1);
+		int ya = (cy + 1) * clusterSize - 1;
+		int yb = ya + 1;
+		int x0 = cx * clusterSize;
+		int x1 = Math.min(x0 + clusterSize, grid.xExtent);
+
+		for(int x = x0; x < x1; x++){
+			removePartnersIn(grid.cellIndex(x, ya), south);
+			removePartnersIn(grid.cellIndex(x, yb), north);
+		}
+
+		int runStart = -1;
+		for(int x = x0; x <= x1; x++){
+			boolean open = x < x1 && isFree(x, ya) && isFree(x, yb);
+			if(open && runStart == -1){
+				runStart = x;
+			} else if(!open && runStart != -1){
+				addRun(runStart, ya, runStart, yb, 1, 0, x - runStart);
+				runStart = -1;
+			}
+		}
+		for(int x = x0; x + 1 < x1; x++){
+			boolean straight = (isFree(x, ya) && isFree(x, yb)) || (isFree(x + 1, ya) && isFree(x + 1, yb));
+			if(!straight){
+				if(isFree(x, ya) && isFree(x + 1, yb)){
+					addPair(grid.cellIndex(x, ya), grid.cellIndex(x + 1, yb));
+				}
+				if(isFree(x + 1, ya) && isFree(x, yb)){
+					addPair(grid.cellIndex(x + 1, ya), grid.cellIndex(x, yb));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Link the touching corners of cluster (cx, cy) and the cluster diagonally below it,
+	 * to the east when dx is 1 and to the west when dx is -1.
+	 */
+	private void linkCorner(int cx, int cy, int dx){
+		if(cx < 0 || cy < 0 || cx >= clustersX || cx + dx < 0 || cx + dx >= clustersX || cy + 1 >= clustersY){
+			return;
+		}
+		int y = (cy + 1) * clusterSize - 1;
+		int x = dx == 1 ? (cx + 1) * clusterSize - 1 : cx * clusterSize;
+		int cell = grid.cellIndex(x, y);
+		int diagonal = grid.cellIndex(x + dx, y + 1);
+		removePartnersIn(cell, clusterOf(cx + dx, cy + 1));
+		removePartnersIn(diagonal, clusterOf(cx, cy));
+		if(isFree(x, y) && isFree(x + dx, y + 1)){
+			addPair(cell, diagonal);
+		}
+	}
+
+	private void addRun(int ax, int ay, int bx, int by, int stepX, int stepY, int length){
+		if(length <= SINGLE_TRANSITION_LENGTH){
+			int middle = length / 2;
+			addPair(grid.cellIndex(ax + middle * stepX, ay + middle * stepY), grid.cellIndex(bx + middle * stepX, by + middle * stepY));
+		} else {
+			int last = length - 1;
+			addPair(grid.cellIndex(ax, ay), grid.cellIndex(bx, by));
+			addPair(grid.cellIndex(ax + last * stepX, ay + last * stepY), grid.cellIndex(bx + last * stepX, by + last * stepY));
+		}
+	}
+
+	private void addPair(int a, int b){
+		partners[a] = append(partners[a], b);
+		partners[b] = append(partners[b], a);
+	}
+
+	private static int[] append(int[] cells, int cell){
+		if(cells == null){
+			return new int[] {cell};
+		}
+		for(int i = 0; i < cells.length; i++){
+			if(cells[i] == cell){
+				return cells;
+			}
+		}
+		int[] grown = Arrays.copyOf(cells, cells.length + 1);
+		grown[cells.length] = cell;
+		return grown;
+	}
+
+	private void removePartnersIn(int cell, int cluster){
+		int[] across = partners[cell];
+		if(across == null){
+			return;
+		}
+		int kept = 0;
+		for(int i = 0; i < across.length; i++){
+			if(clusterOfCell(across[i]) != cluster){
+				kept++;
+			}
+		}
+		if(kept == across.length){
+			return;
+		}
+		int[] remaining = new int[kept];
+		kept = 0;
+		for(int i = 0; i < across.length; i++){
+			if(clusterOfCell(across[i]) != cluster){
+				remaining[kept++] = across[i];
+			}
+		}
+		partners[cell] = remaining.length == 0 ? null : remaining;
+	}
+
+	private boolean isFree(int x, int y){
+		return grid.inBounds(x, y) && !grid.isBlocked(grid.cellIndex(x, y));
+	}
+
+	private int clusterOf(int cx, int cy){
+		return cx + cy * clustersX;
+	}
+
+	private int clusterOfCell(int cell){
+		return clusterOf((cell % grid.xExtent) / clusterSize, (cell / grid.xExtent) / clusterSize);
+	}
+}
@@ -0,0 +1,126 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Counts of non-negative long values in buckets whose width grows with the value, the way an HDR
+ * histogram does it. Values below 2^precision get a bucket each and every doubling above that is
+ * split into 2^(precision - 1) buckets, so any value is known to within one part in
+ * 2^(precision - 1) while the whole range of a long fits in a few thousand counters. Recording is
+ * a couple of shifts and an increment, so it can sit on hot paths.
+ */
+public class Histogram {
+	private final int precision;
+	private final int subBuckets;
+	private final int halfSubBuckets;
+	private final long[] counts;
+	private long totalCount;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+
+	/**
+	 * @param precision bits of each value kept exactly, between 2 and 20
+	 */
+	public Histogram(int precision){
+		if(precision < 2 || precision > 20){
+			throw new IllegalArgumentException("precision must be between 2 and 20 but was " + precision);
+		}
+		this.precision = precision;
+		this.subBuckets = 1 << precision;
+		this.halfSubBuckets = subBuckets >> 1;
+		// every doubling from 2^precision up to 2^62 gets half a set of buckets
+		this.counts = new long[subBuckets + (63 - precision) * halfSubBuckets];
+	}
+
+	/**
+	 * Count the value. Negative values are counted as 0.
+	 */
+	public void record(long value){
+		if(value < 0){
+			value = 0;
+		}
+		counts[bucketOf(value)]++;
+		totalCount++;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	public long getCount(){
+		return totalCount;
+	}
+
+	public long getSum(){
+		return sum;
+	}
+
+	/**
+	 * @return the smallest value recorded or 0 if there are none
+	 */
+	public long getMin(){
+		return totalCount == 0 ? 0 : min;
+	}
+
+	/**
+	 * @return the largest value recorded or 0 if there are none
+	 */
+	public long getMax(){
+		return totalCount == 0 ? 0 : max;
+	}
+
+	public double getMean(){
+		return totalCount == 0 ? 0 : (double) sum / totalCount;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return a value that at least that share of the recorded values are no larger than, the top
+	 * of the bucket it falls in but never more than the largest value, or 0 if there are none
+	 */
+	public long getValueAtPercentile(double percentile){
+		if(totalCount == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * totalCount));
+		long seen = 0;
+		for(int bucket = 0; bucket < counts.length; bucket++){
+			seen += counts[bucket];
+			if(seen >= rank){
+				return Math.min(highestIn(bucket), max);
+			}
+		}
+		return max;
+	}
+
+	public int getPrecision(){
+		return precision;
+	}
+
+	public void clear(){
+		Arrays.fill(counts, 0);
+		totalCount = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+	}
+
+	private int bucketOf(long value){
+		if(value < subBuckets){
+			return (int) value;
+		}
+		// Shift away all but the top precision bits, the shift picks the set of buckets
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (precision - 1);
+		return subBuckets + (shift - 1) * halfSubBuckets + (int) ((value >>> shift) - halfSubBuckets);
+	}
+
+	private long highestIn(int bucket){
+		if(bucket < subBuckets){
+			return bucket;
+		}
+		int offset = bucket - subBuckets;
+		int shift = offset / halfSubBuckets + 1;
+		long top = offset % halfSubBuckets + halfSubBuckets;
+		return ((top + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,218 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of grid cells where each cell is identified by its index (x + y * xExtent).
+ * Because the heap knows where every cell currently sits, membership tests are O(1) and
+ * lowering (or raising) the key of a queued cell is O(log n) instead of the O(n) remove/add
+ * a java.util.PriorityQueue needs.
+ *
+ * Smaller keys come out first. Callers pick how to pack their priority into the long,
+ * e.g. f-cost in the high bits and a tie breaker in the low bits.
+ */
+public class IndexedMinHeap implements OpenList {
+	// heap slot -> cell index
+	private int[] heap;
+	// cell index -> heap slot or -1 when the cell is not queued
+	private int[] slots;
+	// cell index -> key, only meaningful while the cell is queued
+	private long[] keys;
+	private int size;
+	// operation counts over the heap's whole life, for metrics
+	private long addCount;
+	private long decreaseCount;
+	private long pollCount;
+
+	/**
+	 * @param capacity the number of cells on the map (xExtent * yExtent)
+	 */
+	public IndexedMinHeap(int capacity){
+		this.heap = new int[capacity];
+		this.slots = new int[capacity];
+		this.keys = new long[capacity];
+		Arrays.fill(slots, -1);
+	}
+
+	public int capacity(){
+		return heap.length;
+	}
+
+	/**
+	 * Make room for indices up to the capacity, for searches that number their nodes as they
+	 * generate them rather than by cell. Queued cells and the counts are kept.
+	 */
+	public void ensureCapacity(int capacity){
+		if(capacity > heap.length){
+			int old = heap.length;
+			heap = Arrays.copyOf(heap, capacity);
+			slots = Arrays.copyOf(slots, capacity);
+			keys = Arrays.copyOf(keys, capacity);
+			Arrays.fill(slots, old, capacity, -1);
+		}
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	public boolean contains(int cell){
+		return slots[cell] != -1;
+	}
+
+	/**
+	 * @return the key of a queued cell
+	 */
+	public long getKey(int cell){
+		return keys[cell];
+	}
+
+	/**
+	 * Queue a cell that is not already in the heap.
+	 */
+	public void add(int cell, long key){
+		keys[cell] = key;
+		heap[size] = cell;
+		slots[cell] = size;
+		size++;
+		addCount++;
+		siftUp(size - 1);
+	}
+
+	/**
+	 * Lower the key of a queued cell. Keys that are not lower are ignored.
+	 */
+	public void decreaseKey(int cell, long key){
+		if(key < keys[cell]){
+			keys[cell] = key;
+			decreaseCount++;
+			siftUp(slots[cell]);
+		}
+	}
+
+	/**
+	 * Add the cell if it is not queued otherwise move it to its new key in either direction.
+	 */
+	public void update(int cell, long key){
+		if(!contains(cell)){
+			add(cell, key);
+		} else if(key < keys[cell]){
+			keys[cell] = key;
+			decreaseCount++;
+			siftUp(slots[cell]);
+		} else if(key > keys[cell]){
+			keys[cell] = key;
+			siftDown(slots[cell]);
+		}
+	}
+
+	/**
+	 * @return the cell with the smallest key without removing it
+	 */
+	public int peek(){
+		return heap[0];
+	}
+
+	public long peekKey(){
+		return keys[heap[0]];
+	}
+
+	/**
+	 * Remove and return the cell with the smallest key.
+	 */
+	public int poll(){
+		int top = heap[0];
+		removeAt(0);
+		pollCount++;
+		return top;
+	}
+
+	/**
+	 * Remove a cell from the heap if it is queued.
+	 */
+	public void remove(int cell){
+		int slot = slots[cell];
+		if(slot != -1){
+			removeAt(slot);
+		}
+	}
+
+	/**
+	 * Empty the heap. Only touches the cells that were queued so it costs O(size) not O(capacity).
+	 */
+	public void clear(){
+		for(int i = 0; i < size; i++){
+			slots[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	public long getAddCount(){
+		return addCount;
+	}
+
+	public long getDecreaseCount(){
+		return decreaseCount;
+	}
+
+	public long getPollCount(){
+		return pollCount;
+	}
+
+	private void removeAt(int slot){
+		int removed = heap[slot];
+		size--;
+		slots[removed] = -1;
+		if(slot != size){
+			int last = heap[size];
+			heap[slot] = last;
+			slots[last] = slot;
+			siftDown(slot);
+			siftUp(slots[last]);
+		}
+	}
+
+	private void siftUp(int slot){
+		int cell = heap[slot];
+		long key = keys[cell];
+		while(slot > 0){
+			int parentSlot = (slot - 1) >>> 1;
+			int parent = heap[parentSlot];
+			if(keys[parent] <= key){
+				break;
+			}
+			heap[slot] = parent;
+			slots[parent] = slot;
+			slot = parentSlot;
+		}
+		heap[slot] = cell;
+		slots[cell] = slot;
+	}
+
+	private void siftDown(int slot){
+		int cell = heap[slot];
+		long key = keys[cell];
+		int half = size >>> 1;
+		while(slot < half){
+			int childSlot = 2 * slot + 1;
+			int child = heap[childSlot];
+			int rightSlot = childSlot + 1;
+			if(rightSlot < size && keys[heap[rightSlot]] < keys[child]){
+				childSlot = rightSlot;
+				child = heap[childSlot];
+			}
+			if(key <= keys[child]){
+				break;
+			}
+			heap[slot] = child;
+			slots[child] = slot;
+			slot = childSlot;
+		}
+		heap[slot] = cell;
+		slots[cell] = slot;
+	}
+}
@@ -0,0 +1,169 @@
+package edu.cwru.sepia.agent.astar;
+
+/**
+ * Jump Point Search over an 8-connected grid where every move (straight or diagonal) costs 1.
+ *
+ * Instead of putting every neighbour on the open list the search keeps walking in a direction
+ * until it reaches a cell with a forced neighbour (an obstacle just behind it makes a turn there
+ * necessary) or the goal, and only that jump point goes on the open list. The path found has the
+ * same length as the one plain A* finds but long corridors and open rooms cost a handful of
+ * expansions instead of one per cell.
+ *
+ * Diagonal moves are allowed past obstacle corners, the same as the plain A* search.
+ */
+public class JumpPointSearch {
+
+	private final SearchContext context;
+
+	/**
+	 * @param context scratch space with the obstacles for this search already blocked
+	 */
+	public JumpPointSearch(SearchContext context){
+		this.context = context;
+	}
+
+	/**
+	 * Search from start to goal. On success the path is left in the context's path buffer.
+	 *
+	 * @return true if the goal was reached
+	 */
+	public boolean search(int start, int goal){
+		OpenList open = context.getOpen();
+		context.setCost(start, 0, -1);
+		open.add(start, priority(0, heuristic(start, goal)));
+
+		while(!open.isEmpty()){
+			int current = open.poll();
+			if(current == goal){
+				context.tracePath(goal);
+				return true;
+			}
+			context.close(current);
+			identifySuccessors(current, goal);
+		}
+		return false;
+	}
+
+	/**
+	 * Jump in every direction that is not pruned by the direction we arrived from.
+	 */
+	private void identifySuccessors(int current, int goal){
+		int x = context.xOf(current);
+		int y = context.yOf(current);
+		int parent = context.getParent(current);
+
+		if(parent == -1){
+			// The start has no direction of travel so nothing can be pruned
+			for(int i = 0; i < SearchContext.DX.length; i++){
+				jumpAndQueue(current, x, y, SearchContext.DX[i], SearchContext.DY[i], goal);
+			}
+			return;
+		}
+
+		int dx = Integer.signum(x - context.xOf(parent));
+		int dy = Integer.signum(y - context.yOf(parent));
+
+		if(dx != 0 && dy != 0){
+			// Diagonal: keep going diagonally and in both straight components
+			jumpAndQueue(current, x, y, dx, dy, goal);
+			jumpAndQueue(current, x, y, dx, 0, goal);
+			jumpAndQueue(current, x, y, 0, dy, goal);
+			// Forced neighbours around the obstacles behind us
+			if(isObstacle(x - dx, y)){
+				jumpAndQueue(current, x, y, -dx, dy, goal);
+			}
+			if(isObstacle(x, y - dy)){
+				jumpAndQueue(current, x, y, dx, -dy, goal);
+			}
+		} else if(dx != 0){
+			jumpAndQueue(current, x, y, dx, 0, goal);
+			if(isObstacle(x, y + 1)){
+				jumpAndQueue(current, x, y, dx, 1, goal);
+			}
+			if(isObstacle(x, y - 1)){
+				jumpAndQueue(current, x, y, dx, -1, goal);
+			}
+		} else {
+			jumpAndQueue(current, x, y, 0, dy, goal);
+			if(isObstacle(x + 1, y)){
+				jumpAndQueue(current, x, y, 1, dy, goal);
+			}
+			if(isObstacle(x - 1, y)){
+				jumpAndQueue(current, x, y, -1, dy, goal);
+			}
+		}
+	}
+
+	private void jumpAndQueue(int current, int x, int y, int dx, int dy, int goal){
+		int jumpPoint = jump(x, y, dx, dy, goal);
+		if(jumpPoint == -1 || context.isClosed(jumpPoint)){
+			return;
+		}
+		int cost = context.getCost(current) + context.distance(current, jumpPoint);
+		OpenList open = context.getOpen();
+		if(!open.contains(jumpPoint)){
+			context.setCost(jumpPoint, cost, current);
+			open.add(jumpPoint, priority(cost, heuristic(jumpPoint, goal)));
+		} else if(cost < context.getCost(jumpPoint)){
+			context.setCost(jumpPoint, cost, current);
+			open.decreaseKey(jumpPoint, priority(cost, heuristic(jumpPoint, goal)));
+		}
+	}
+
+	/**
+	 * Walk from (x, y) in direction (dx, dy) until a jump point is found.
+	 *
+	 * @return the jump point's cell or -1 if the walk hit an obstacle or the edge of the map
+	 */
+	private int jump(int x, int y, int dx, int dy, int goal){
+		while(true){
+			x += dx;
+			y += dy;
+			if(!isWalkable(x, y)){
+				return -1;
+			}
+			int cell = context.cellIndex(x, y);
+			if(cell == goal){
+				return cell;
+			}
+			if(dx != 0 && dy != 0){
+				if((isObstacle(x - dx, y) && isWalkable(x - dx, y + dy)) ||
+						(isObstacle(x, y - dy) && isWalkable(x + dx, y - dy))){
+					return cell;
+				}
+				// A diagonal cell is a jump point if either straight walk from it finds one
+				if(jump(x, y, dx, 0, goal) != -1 || jump(x, y, 0, dy, goal) != -1){
+					return cell;
+				}
+			} else if(dx != 0){
+				if((isObstacle(x, y + 1) && isWalkable(x + dx, y + 1)) ||
+						(isObstacle(x, y - 1) && isWalkable(x + dx, y - 1))){
+					return cell;
+				}
+			} else {
+				if((isObstacle(x + 1, y) && isWalkable(x + 1, y + dy)) ||
+						(isObstacle(x - 1, y) && isWalkable(x - 1, y + dy))){
+					return cell;
+				}
+			}
+		}
+	}
+
+	private boolean isWalkable(int x, int y){
+		return context.inBounds(x, y) && !context.isBlocked(context.cellIndex(x, y));
+	}
+
+	private boolean isObstacle(int x, int y){
+		return context.inBounds(x, y) && context.isBlocked(context.cellIndex(x, y));
+	}
+
+	private int heuristic(int cell, int goal){
+		// -1 as the goal only has to be reached adjacently, same as GridAstar.estimate, but
+		// never below 0 so keys stay non-negative for a BucketQueue
+		return Math.max(context.distance(cell, goal) - 1, 0);
+	}
+
+	private static long priority(int cost, int heuristic){
+		return ((long) (cost + heuristic) << 32) - cost;
+	}
+}
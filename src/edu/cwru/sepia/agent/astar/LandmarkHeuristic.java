@@ -0,0 +1,242 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The ALT heuristic (A*, landmarks and the triangle inequality, Goldberg and Harrelson).
+ *
+ * A handful of landmark cells are picked far apart on the static layer of an ObstacleGrid and the
+ * exact number of moves from each landmark to every cell is found with a breadth first search.
+ * For any cell n and goal g and landmark L the triangle inequality gives
+ * |d(L, g) - d(L, n)| <= d(n, g), so the largest of those over all landmarks is a lower bound that
+ * knows about walls. Units standing in the way only make paths longer so the bound still holds
+ * with the dynamic layer on top.
+ *
+ * The tables only depend on the static layer so they are cached in memory and on disk under the
+ * fingerprint of the map and built once per map rather than once per episode.
+ */
+public class LandmarkHeuristic {
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	// Marks a cache file so an unrelated file with the same name is not read as tables
+	private static final int FILE_MAGIC = 0x414c5431;
+
+	private static final Map<String, LandmarkHeuristic> MEMORY_CACHE = new HashMap<String, LandmarkHeuristic>();
+
+	private final int xExtent;
+	private final int yExtent;
+	private final int[] landmarks;
+	// landmark -> cell -> moves from the landmark or UNREACHABLE
+	private final int[][] distances;
+
+	private LandmarkHeuristic(int xExtent, int yExtent, int[] landmarks, int[][] distances){
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		this.landmarks = landmarks;
+		this.distances = distances;
+	}
+
+	/**
+	 * Get the tables for the map from memory, then from the cache directory, and only build them
+	 * if neither has them. Freshly built tables are written to the cache directory.
+	 *
+	 * @param cacheDirectory where table files are kept, or null to only cache in memory
+	 */
+	public static synchronized LandmarkHeuristic forGrid(ObstacleGrid grid, int landmarkCount, File cacheDirectory){
+		String key = Long.toHexString(grid.staticFingerprint()) + "-" + landmarkCount;
+		LandmarkHeuristic heuristic = MEMORY_CACHE.get(key);
+		if(heuristic != null){
+			return heuristic;
+		}
+
+		File cacheFile = cacheDirectory == null ? null : new File(cacheDirectory, key + ".alt");
+		if(cacheFile != null && cacheFile.exists()){
+			try {
+				heuristic = read(cacheFile, grid);
+			} catch (IOException e) {
+				System.err.println("Failed to read landmark tables from " + cacheFile + ". Reason: " + e.getMessage());
+			}
+		}
+		if(heuristic == null){
+			heuristic = build(grid, landmarkCount);
+			if(cacheFile != null){
+				try {
+					heuristic.write(cacheFile);
+				} catch (IOException e) {
+					System.err.println("Failed to write landmark tables to " + cacheFile + ". Reason: " + e.getMessage());
+				}
+			}
+		}
+		MEMORY_CACHE.put(key, heuristic);
+		return heuristic;
+	}
+
+	/**
+	 * Pick the landmarks by farthest point selection and fill in their distance tables. Each new
+	 * landmark is the cell whose closest landmark so far is furthest away, which spreads them out
+	 * to the edges and dead ends of the map where they give the best bounds.
+	 */
+	public static LandmarkHeuristic build(ObstacleGrid grid, int landmarkCount){
+		int size = grid.size();
+		int[] queue = new int[size];
+		int[] closest = new int[size];
+
+		int seed = -1;
+		for(int cell = 0; cell < size && seed == -1; cell++){
+			if(!grid.isStaticBlocked(cell)){
+				seed = cell;
+			}
+		}
+		if(seed == -1 || landmarkCount <= 0){
+			return new LandmarkHeuristic(grid.xExtent, grid.yExtent, new int[0], new int[0][]);
+		}
+
+		// Start from the far end of whatever area the first open cell is in
+		int[] seedDistances = new int[size];
+		breadthFirst(grid, seed, seedDistances, queue);
+		int next = farthest(seedDistances);
+
+		int[] landmarks = new int[landmarkCount];
+		int[][] distances = new int[landmarkCount][];
+		int count = 0;
+		Arrays.fill(closest, UNREACHABLE);
+		while(count < landmarkCount && next != -1){
+			landmarks[count] = next;
+			distances[count] = new int[size];
+			breadthFirst(grid, next, distances[count], queue);
+			for(int cell = 0; cell < size; cell++){
+				closest[cell] = Math.min(closest[cell], distances[count][cell]);
+			}
+			count++;
+			next = farthest(closest);
+			if(next != -1 && closest[next] == 0){
+				// Every reachable cell already is a landmark
+				next = -1;
+			}
+		}
+		if(count < landmarkCount){
+			landmarks = Arrays.copyOf(landmarks, count);
+			distances = Arrays.copyOf(distances, count);
+		}
+		return new LandmarkHeuristic(grid.xExtent, grid.yExtent, landmarks, distances);
+	}
+
+	/**
+	 * @return a lower bound on the moves from the cell to the goal
+	 */
+	public int estimate(int cell, int goal){
+		int best = 0;
+		for(int[] table : distances){
+			int toCell = table[cell];
+			int toGoal = table[goal];
+			if(toCell == UNREACHABLE || toGoal == UNREACHABLE){
+				// This landmark is in another area and says nothing about these two cells
+				continue;
+			}
+			int bound = Math.abs(toGoal - toCell);
+			if(bound > best){
+				best = bound;
+			}
+		}
+		return best;
+	}
+
+	public int getLandmarkCount(){
+		return landmarks.length;
+	}
+
+	public int getLandmark(int index){
+		return landmarks[index];
+	}
+
+	private void write(File file) throws IOException {
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(xExtent);
+			out.writeInt(yExtent);
+			out.writeInt(landmarks.length);
+			for(int i = 0; i < landmarks.length; i++){
+				out.writeInt(landmarks[i]);
+				for(int distance : distances[i]){
+					out.writeInt(distance);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static LandmarkHeuristic read(File file, ObstacleGrid grid) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt() != FILE_MAGIC || in.readInt() != grid.xExtent || in.readInt() != grid.yExtent){
+				throw new IOException("not a landmark table for this map");
+			}
+			int count = in.readInt();
+			int[] landmarks = new int[count];
+			int[][] distances = new int[count][grid.size()];
+			for(int i = 0; i < count; i++){
+				landmarks[i] = in.readInt();
+				for(int cell = 0; cell < distances[i].length; cell++){
+					distances[i][cell] = in.readInt();
+				}
+			}
+			return new LandmarkHeuristic(grid.xExtent, grid.yExtent, landmarks, distances);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Fill in the moves from the source to every cell over the static layer.
+	 */
+	private static void breadthFirst(ObstacleGrid grid, int source, int[] distance, int[] queue){
+		Arrays.fill(distance, UNREACHABLE);
+		distance[source] = 0;
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = source;
+		while(head < tail){
+			int current = queue[head++];
+			int x = current % grid.xExtent;
+			int y = current / grid.xExtent;
+			for(int d = 0; d < SearchContext.DX.length; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(!grid.inBounds(nx, ny)){
+					continue;
+				}
+				int next = grid.cellIndex(nx, ny);
+				if(distance[next] == UNREACHABLE && !grid.isStaticBlocked(next)){
+					distance[next] = distance[current] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the cell with the largest reachable distance or -1 if none is reachable
+	 */
+	private static int farthest(int[] distance){
+		int best = -1;
+		for(int cell = 0; cell < distance.length; cell++){
+			if(distance[cell] != UNREACHABLE && (best == -1 || distance[cell] > distance[best])){
+				best = cell;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,122 @@
+package edu.cwru.sepia.agent.astar;
+
+/**
+ * Which cells of a map can not be walked through, packed one bit per cell into longs.
+ *
+ * The static layer holds things that do not move during an episode (trees and gold mines) and is
+ * filled in once. The dynamic layer sits on top of it for the few cells other units are standing
+ * on and can be changed every turn without touching the static layer. A blocked check is a single
+ * bit test on the two layers.
+ */
+public class ObstacleGrid {
+	public final int xExtent;
+	public final int yExtent;
+
+	private final long[] staticBits;
+	private final long[] dynamicBits;
+	// the cells set in the dynamic layer so it can be cleared without scanning it
+	private int[] dynamicCells = new int[4];
+	private int dynamicCount;
+
+	public ObstacleGrid(int xExtent, int yExtent){
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		int words = (xExtent * yExtent + 63) >>> 6;
+		this.staticBits = new long[words];
+		this.dynamicBits = new long[words];
+	}
+
+	/**
+	 * Copy the static layer of another grid. The dynamic layer of the copy starts empty.
+	 */
+	public ObstacleGrid(ObstacleGrid other){
+		this(other.xExtent, other.yExtent);
+		System.arraycopy(other.staticBits, 0, staticBits, 0, staticBits.length);
+	}
+
+	public int size(){
+		return xExtent * yExtent;
+	}
+
+	public int cellIndex(int x, int y){
+		return x + y * xExtent;
+	}
+
+	public boolean inBounds(int x, int y){
+		return x >= 0 && y >= 0 && x < xExtent && y < yExtent;
+	}
+
+	/**
+	 * @return true if the cell is blocked in either layer
+	 */
+	public boolean isBlocked(int cell){
+		int word = cell >>> 6;
+		return ((staticBits[word] | dynamicBits[word]) & (1L << cell)) != 0;
+	}
+
+	public boolean isStaticBlocked(int cell){
+		return (staticBits[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	/**
+	 * Mark a cell as permanently blocked. Out of bounds cells are ignored.
+	 */
+	public void blockStatic(int x, int y){
+		if(inBounds(x, y)){
+			int cell = cellIndex(x, y);
+			staticBits[cell >>> 6] |= 1L << cell;
+		}
+	}
+
+	public void unblockStatic(int cell){
+		staticBits[cell >>> 6] &= ~(1L << cell);
+	}
+
+	/**
+	 * @return a hash of the size and the static layer, the same for every episode on the same map
+	 */
+	public long staticFingerprint(){
+		// FNV-1a over the extents and the bitmap words
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ xExtent) * 0x100000001b3L;
+		hash = (hash ^ yExtent) * 0x100000001b3L;
+		for(long word : staticBits){
+			hash = (hash ^ word) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Mark a cell as blocked until it is unblocked or the dynamic layer is cleared.
+	 */
+	public void blockDynamic(int cell){
+		if((dynamicBits[cell >>> 6] & (1L << cell)) != 0){
+			return;
+		}
+		dynamicBits[cell >>> 6] |= 1L << cell;
+		if(dynamicCount == dynamicCells.length){
+			int[] grown = new int[dynamicCells.length * 2];
+			System.arraycopy(dynamicCells, 0, grown, 0, dynamicCount);
+			dynamicCells = grown;
+		}
+		dynamicCells[dynamicCount++] = cell;
+	}
+
+	public void unblockDynamic(int cell){
+		dynamicBits[cell >>> 6] &= ~(1L << cell);
+		for(int i = 0; i < dynamicCount; i++){
+			if(dynamicCells[i] == cell){
+				dynamicCells[i] = dynamicCells[--dynamicCount];
+				return;
+			}
+		}
+	}
+
+	public void clearDynamic(){
+		for(int i = 0; i < dynamicCount; i++){
+			int cell = dynamicCells[i];
+			dynamicBits[cell >>> 6] &= ~(1L << cell);
+		}
+		dynamicCount = 0;
+	}
+}
@@ -0,0 +1,76 @@
+package edu.cwru.sepia.agent.astar;
+
+/**
+ * The open list of a grid search: cells (x + y * xExtent) waiting to be expanded, each queued
+ * under a long key where smaller keys come out first. Searches usually pack the f-cost into the
+ * high 32 bits and a tie breaker into the low bits.
+ */
+public interface OpenList {
+	/**
+	 * @return the number of cells on the map (xExtent * yExtent)
+	 */
+	int capacity();
+
+	int size();
+
+	boolean isEmpty();
+
+	boolean contains(int cell);
+
+	/**
+	 * @return the key of a queued cell
+	 */
+	long getKey(int cell);
+
+	/**
+	 * Queue a cell that is not already on the list.
+	 */
+	void add(int cell, long key);
+
+	/**
+	 * Lower the key of a queued cell. Keys that are not lower are ignored.
+	 */
+	void decreaseKey(int cell, long key);
+
+	/**
+	 * Add the cell if it is not queued otherwise move it to its new key in either direction.
+	 */
+	void update(int cell, long key);
+
+	/**
+	 * @return the next cell to come out without removing it
+	 */
+	int peek();
+
+	long peekKey();
+
+	/**
+	 * Remove and return the next cell.
+	 */
+	int poll();
+
+	/**
+	 * Remove a cell from the list if it is queued.
+	 */
+	void remove(int cell);
+
+	/**
+	 * Empty the list. Costs O(size) rather than O(capacity).
+	 */
+	void clear();
+
+	/**
+	 * @return the number of cells ever added, which is the number of nodes the searches generated
+	 */
+	long getAddCount();
+
+	/**
+	 * @return the number of times the key of a queued cell was lowered
+	 */
+	long getDecreaseCount();
+
+	/**
+	 * @return the number of cells ever polled, which is the number of nodes the searches expanded
+	 */
+	long getPollCount();
+}
@@ -0,0 +1,182 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * A path stored as the cell it starts from and one byte per step giving the direction of that
+ * step (an index into SearchContext.DX/DY, so the same order as Direction.values()) or WAIT for a
+ * step spent standing still. A cursor marks the next step to take, so looking ahead never has to
+ * take steps off and put them back.
+ *
+ * Like the paths the planners produce the start is not a step and the goal is not included.
+ */
+public class PackedPath {
+	public static final byte WAIT = 8;
+
+	private final int xExtent;
+	private byte[] steps;
+	private int length;
+	// index of the next step and the cell the footman is on before taking it
+	private int cursor;
+	private int cursorCell;
+	// the cell the last step ends on
+	private int endCell;
+
+	/**
+	 * @param cells the cell after each step, first step first
+	 */
+	public PackedPath(int xExtent, int start, int[] cells, int count){
+		this.xExtent = xExtent;
+		this.steps = new byte[Math.max(count, 1)];
+		reset(start);
+		for(int i = 0; i < count; i++){
+			append(cells[i]);
+		}
+	}
+
+	/**
+	 * @return true once every step has been taken
+	 */
+	public boolean isEmpty(){
+		return cursor == length;
+	}
+
+	/**
+	 * @return the number of steps not yet taken
+	 */
+	public int remaining(){
+		return length - cursor;
+	}
+
+	/**
+	 * @return the cell the next step is taken from
+	 */
+	public int currentCell(){
+		return cursorCell;
+	}
+
+	/**
+	 * Take the next step.
+	 *
+	 * @return the cell the step ends on
+	 */
+	public int next(){
+		cursorCell = step(cursorCell, steps[cursor++]);
+		return cursorCell;
+	}
+
+	/**
+	 * @return the cell the step that many steps ahead ends on, 0 being the next step
+	 */
+	public int peek(int ahead){
+		int cell = cursorCell;
+		for(int i = cursor; i <= cursor + ahead; i++){
+			cell = step(cell, steps[i]);
+		}
+		return cell;
+	}
+
+	/**
+	 * Write the cell each remaining step ends on, next step first.
+	 *
+	 * @return the number of cells written
+	 */
+	public int remainingCells(int[] out){
+		int cell = cursorCell;
+		for(int i = cursor; i < length; i++){
+			cell = step(cell, steps[i]);
+			out[i - cursor] = cell;
+		}
+		return length - cursor;
+	}
+
+	/**
+	 * Skip ahead to just after the last remaining step that ends on the cell, for when the unit
+	 * is already part way along the path.
+	 *
+	 * @return false if no remaining step ends on the cell, the cursor is left alone then
+	 */
+	public boolean advancePast(int target){
+		int cell = cursorCell;
+		int found = -1;
+		for(int i = cursor; i < length; i++){
+			cell = step(cell, steps[i]);
+			if(cell == target){
+				found = i;
+			}
+		}
+		if(found == -1){
+			return false;
+		}
+		cursorCell = target;
+		cursor = found + 1;
+		return true;
+	}
+
+	/**
+	 * Swap the remaining steps before the one that ends on the rejoin step for a detour. The
+	 * detour goes from the current cell to the cell before the rejoin step's cell, and everything
+	 * from the rejoin step on is kept. Steps already taken are dropped.
+	 *
+	 * @param rejoin how many steps ahead the kept part starts, 0 being the next step
+	 * @param detour the cell after each step of the detour, first step first
+	 */
+	public void splice(int rejoin, int[] detour, int detourLength){
+		int keepFrom = cursor + rejoin;
+		int rejoinCell = peek(rejoin);
+		byte[] kept = Arrays.copyOfRange(steps, keepFrom + 1, length);
+		int end = endCell;
+
+		reset(cursorCell);
+		for(int i = 0; i < detourLength; i++){
+			append(detour[i]);
+		}
+		append(rejoinCell);
+		if(length + kept.length > steps.length){
+			steps = Arrays.copyOf(steps, length + kept.length);
+		}
+		System.arraycopy(kept, 0, steps, length, kept.length);
+		length += kept.length;
+		endCell = end;
+	}
+
+	private void reset(int startCell){
+		length = 0;
+		cursor = 0;
+		cursorCell = startCell;
+		endCell = startCell;
+	}
+
+	/**
+	 * Add a step to the end of the path that ends on the cell, which has to be next to (or the
+	 * same as) where the path currently ends.
+	 */
+	private void append(int cell){
+		if(length == steps.length){
+			steps = Arrays.copyOf(steps, steps.length * 2);
+		}
+		steps[length++] = direction(endCell, cell);
+		endCell = cell;
+	}
+
+	private byte direction(int from, int to){
+		int dx = to % xExtent - from % xExtent;
+		int dy = to / xExtent - from / xExtent;
+		if(dx == 0 && dy == 0){
+			return WAIT;
+		}
+		for(byte d = 0; d < SearchContext.DX.length; d++){
+			if(SearchContext.DX[d] == dx && SearchContext.DY[d] == dy){
+				return d;
+			}
+		}
+		throw new IllegalArgumentException("cells " + from + " and " + to + " are not next to each other");
+	}
+
+	private int step(int cell, byte direction){
+		if(direction == WAIT){
+			return cell;
+		}
+		return cell + SearchContext.DX[direction] + SearchContext.DY[direction] * xExtent;
+	}
+}
@@ -0,0 +1,450 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Offline benchmark of the search core on its own, without the SEPIA runtime:
+ *
+ * <pre>
+ * java -Xmx4g -cp bin:lib/SEPIA.jar edu.cwru.sepia.agent.astar.PathBenchmark [options] [map.xml...]
+ * </pre>
+ *
+ * With no maps given it runs data/maze_*.xml. Options:
+ * <pre>
+ * -sizes 256,1024,4096       sides of the random square maps, "none" for only the map files
+ * -densities 0.1,0.2,0.3     share of blocked cells on the random maps
+ * -planners astar,bucket,jps,bidir,alt
+ *                            which searches to run, subgoal is also available but slow to build
+ *                            on big random maps, weighted and focal trade path length for speed
+ * -w 1.5                     how many times the shortest path weighted and focal may return
+ * -queries 256               random start and goal pairs per map, always in the same open area
+ * -warmup 3 -iterations 5    iterations before and while measuring
+ * -time 1000                 length of each iteration in msecs
+ * -csv results.csv           also write the results as CSV
+ * </pre>
+ *
+ * Each iteration runs queries round robin until its time is up. Like a JMH throughput benchmark
+ * with the gc profiler it reports operations (queries) per second with the standard deviation
+ * over iterations and the allocation rate, read from the per-thread allocation counter of the
+ * JVM. Nodes expanded per query come from the open list counts. Warmup iterations give the JIT
+ * time to compile the search before anything is measured.
+ */
+public class PathBenchmark {
+	/**
+	 * One of the searches being measured, set up for one map.
+	 */
+	private interface Planner {
+		boolean search(int start, int goal);
+
+		int getPathLength();
+
+		OpenList[] getOpenLists();
+	}
+
+	private enum Kind {
+		ASTAR, BUCKET, JPS, BIDIR, ALT, SUBGOAL, WEIGHTED, FOCAL;
+
+		Planner create(ObstacleGrid grid, double w){
+			switch(this){
+			case WEIGHTED: {
+				GridAstar astar = new GridAstar(new SearchContext(grid), null);
+				astar.setWeight(w);
+				return gridAstar(astar);
+			}
+			case FOCAL: {
+				GridAstar astar = new GridAstar(new SearchContext(grid), null);
+				astar.setFocalBound(w);
+				return gridAstar(astar);
+			}
+			case BUCKET:
+				return gridAstar(new GridAstar(new SearchContext(grid, true), null));
+			case JPS: {
+				final SearchContext context = new SearchContext(grid);
+				final JumpPointSearch jumpPoints = new JumpPointSearch(context);
+				return new Planner(){
+					public boolean search(int start, int goal){
+						context.beginSearch();
+						return jumpPoints.search(start, goal);
+					}
+
+					public int getPathLength(){
+						return context.getPathLength();
+					}
+
+					public OpenList[] getOpenLists(){
+						return new OpenList[] {context.getOpen()};
+					}
+				};
+			}
+			case BIDIR: {
+				final BidirectionalAstar bidirectional = new BidirectionalAstar(grid);
+				return new Planner(){
+					public boolean search(int start, int goal){
+						return bidirectional.search(start, goal);
+					}
+
+					public int getPathLength(){
+						return bidirectional.getPathLength();
+					}
+
+					public OpenList[] getOpenLists(){
+						return new OpenList[] {bidirectional.getForwardOpen(), bidirectional.getBackwardOpen()};
+					}
+				};
+			}
+			case ALT:
+				return gridAstar(new GridAstar(new SearchContext(grid), LandmarkHeuristic.build(grid, 8)));
+			case SUBGOAL: {
+				final SubgoalGraph graph = SubgoalGraph.build(grid);
+				return new Planner(){
+					public boolean search(int start, int goal){
+						return graph.search(start, goal);
+					}
+
+					public int getPathLength(){
+						return graph.getPathLength();
+					}
+
+					public OpenList[] getOpenLists(){
+						return new OpenList[] {graph.getOpen()};
+					}
+				};
+			}
+			default:
+				return gridAstar(new GridAstar(new SearchContext(grid), null));
+			}
+		}
+
+		private static Planner gridAstar(final GridAstar astar){
+			final SearchContext context = astar.getContext();
+			return new Planner(){
+				public boolean search(int start, int goal){
+					return astar.search(start, goal);
+				}
+
+				public int getPathLength(){
+					return context.getPathLength();
+				}
+
+				public OpenList[] getOpenLists(){
+					// Focal search expands off its focal list
+					return new OpenList[] {astar.getFocal() != null ? astar.getFocal() : context.getOpen()};
+				}
+			};
+		}
+	}
+
+	/**
+	 * What one planner did on one map.
+	 */
+	private static class Result {
+		String map;
+		int cells;
+		double density;
+		Kind planner;
+		double setupMillis;
+		double opsPerSecond;
+		double opsPerSecondError;
+		double bytesPerOp;
+		double allocMegabytesPerSecond;
+		double expandedPerOp;
+	}
+
+	private int[] sizes = {256, 1024, 4096};
+	private double[] densities = {0.1, 0.2, 0.3};
+	private List<Kind> planners = new ArrayList<Kind>(Arrays.asList(Kind.ASTAR, Kind.BUCKET, Kind.JPS, Kind.BIDIR, Kind.ALT));
+	private double w = 1.5;
+	private int queryCount = 256;
+	private int warmupIterations = 3;
+	private int measuredIterations = 5;
+	private long iterationMillis = 1000;
+	private File csvFile;
+	private final List<File> mapFiles = new ArrayList<File>();
+	private final List<Result> results = new ArrayList<Result>();
+	// Path lengths are added up here so the searches can not be optimised away
+	private long checksum;
+
+	public static void main(String[] args) throws Exception {
+		PathBenchmark benchmark = new PathBenchmark();
+		try {
+			benchmark.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: PathBenchmark [-sizes n,...|none] [-densities d,...] [-planners astar,bucket,jps,bidir,alt,subgoal,weighted,focal]"
+					+ " [-w bound] [-queries n] [-warmup n] [-iterations n] [-time msecs] [-csv file] [map.xml...]");
+			System.exit(1);
+		}
+		benchmark.run();
+	}
+
+	private void parse(String[] args){
+		for(int i = 0; i < args.length; i++){
+			String option = args[i];
+			if(!option.startsWith("-")){
+				mapFiles.add(new File(option));
+				continue;
+			}
+			if(i + 1 == args.length){
+				throw new IllegalArgumentException(option + " needs a value");
+			}
+			String value = args[++i];
+			try {
+				if(option.equals("-sizes")){
+					sizes = value.equals("none") ? new int[0] : parseInts(value);
+				} else if(option.equals("-densities")){
+					String[] parts = value.split(",");
+					densities = new double[parts.length];
+					for(int j = 0; j < parts.length; j++){
+						densities[j] = Double.parseDouble(parts[j].trim());
+					}
+				} else if(option.equals("-planners")){
+					planners.clear();
+					for(String name : value.split(",")){
+						planners.add(Kind.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+					}
+				} else if(option.equals("-w")){
+					w = Double.parseDouble(value);
+					if(!(w >= 1)){
+						throw new IllegalArgumentException("-w must be at least 1 but was " + value);
+					}
+				} else if(option.equals("-queries")){
+					queryCount = Integer.parseInt(value);
+				} else if(option.equals("-warmup")){
+					warmupIterations = Integer.parseInt(value);
+				} else if(option.equals("-iterations")){
+					measuredIterations = Math.max(1, Integer.parseInt(value));
+				} else if(option.equals("-time")){
+					iterationMillis = Long.parseLong(value);
+				} else if(option.equals("-csv")){
+					csvFile = new File(value);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(option + " " + value + " is not a number");
+			}
+		}
+		if(mapFiles.isEmpty()){
+			File[] mazes = new File("data").listFiles((directory, name) -> name.startsWith("maze_") && name.endsWith(".xml") && !name.contains("config"));
+			if(mazes != null){
+				Arrays.sort(mazes);
+				mapFiles.addAll(Arrays.asList(mazes));
+			}
+		}
+	}
+
+	private void run() throws Exception {
+		System.out.println(String.format(Locale.ROOT, "%-26s %-8s %10s %12s %10s %12s %12s %12s",
+				"map", "planner", "setup ms", "ops/s", "error", "B/op", "alloc MB/s", "expanded/op"));
+		for(File mapFile : mapFiles){
+			benchmarkMap(mapFile.getName(), PathDatabaseBuilder.readMap(mapFile), Double.NaN);
+		}
+		for(int size : sizes){
+			for(double density : densities){
+				String name = String.format(Locale.ROOT, "random-%d-%.2f", size, density);
+				benchmarkMap(name, randomMap(size, density), density);
+			}
+		}
+		System.out.println("checksum " + checksum);
+		if(csvFile != null){
+			writeCsv(csvFile);
+		}
+	}
+
+	private void benchmarkMap(String name, ObstacleGrid grid, double density){
+		int[][] queries = pickQueries(grid, queryCount, new Random(name.hashCode()));
+		if(queries[0].length == 0){
+			System.out.println(name + ": no two open cells share an area, skipped");
+			return;
+		}
+		for(Kind kind : planners){
+			long setupStart = System.nanoTime();
+			Planner planner = kind.create(grid, w);
+			double setupMillis = (System.nanoTime() - setupStart) / 1e6;
+
+			int next = 0;
+			for(int i = 0; i < warmupIterations; i++){
+				next = iterate(planner, queries, next, null);
+			}
+			double[] opsPerSecond = new double[measuredIterations];
+			long totalOps = 0;
+			long totalNanos = 0;
+			long totalBytes = 0;
+			long totalExpanded = 0;
+			for(int i = 0; i < measuredIterations; i++){
+				long[] measured = new long[4];
+				next = iterate(planner, queries, next, measured);
+				opsPerSecond[i] = measured[0] * 1e9 / measured[1];
+				totalOps += measured[0];
+				totalNanos += measured[1];
+				totalBytes += measured[2];
+				totalExpanded += measured[3];
+			}
+
+			Result result = new Result();
+			result.map = name;
+			result.cells = grid.size();
+			result.density = density;
+			result.planner = kind;
+			result.setupMillis = setupMillis;
+			result.opsPerSecond = mean(opsPerSecond);
+			result.opsPerSecondError = standardDeviation(opsPerSecond);
+			result.bytesPerOp = totalBytes < 0 ? Double.NaN : (double) totalBytes / totalOps;
+			result.allocMegabytesPerSecond = totalBytes < 0 ? Double.NaN : totalBytes / 1e6 / (totalNanos / 1e9);
+			result.expandedPerOp = (double) totalExpanded / totalOps;
+			results.add(result);
+			System.out.println(String.format(Locale.ROOT, "%-26s %-8s %10.1f %12.1f %10.1f %12.1f %12.2f %12.1f",
+					name, kind.name().toLowerCase(Locale.ROOT), result.setupMillis, result.opsPerSecond, result.opsPerSecondError,
+					result.bytesPerOp, result.allocMegabytesPerSecond, result.expandedPerOp));
+		}
+	}
+
+	/**
+	 * Run queries round robin from the given one until the iteration time is up, and at least one.
+	 *
+	 * @param measured null for a warmup, otherwise gets queries run, nsecs taken, bytes allocated
+	 * (negative if the JVM can not tell) and nodes expanded
+	 * @return the query to carry on from
+	 */
+	private int iterate(Planner planner, int[][] queries, int next, long[] measured){
+		long expandedBefore = expanded(planner);
+		long bytesBefore = allocatedBytes();
+		long startTime = System.nanoTime();
+		long endTime = startTime + iterationMillis * 1000000;
+		long ops = 0;
+		long now;
+		do {
+			if(planner.search(queries[0][next], queries[1][next])){
+				checksum += planner.getPathLength();
+			}
+			next = (next + 1) % queries[0].length;
+			ops++;
+			now = System.nanoTime();
+		} while(now < endTime);
+		long bytesAfter = allocatedBytes();
+
+		if(measured != null){
+			measured[0] = ops;
+			measured[1] = now - startTime;
+			measured[2] = bytesBefore < 0 ? -1 : bytesAfter - bytesBefore;
+			measured[3] = expanded(planner) - expandedBefore;
+		}
+		return next;
+	}
+
+	private static long expanded(Planner planner){
+		long polls = 0;
+		for(OpenList open : planner.getOpenLists()){
+			polls += open.getPollCount();
+		}
+		return polls;
+	}
+
+	/**
+	 * @return the bytes this thread has allocated so far or -1 if the JVM does not count them
+	 */
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean){
+			com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+			if(counting.isThreadAllocatedMemorySupported() && counting.isThreadAllocatedMemoryEnabled()){
+				return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A square map with the given share of cells blocked at random. The seed comes from the size
+	 * and density so every run gets the same map.
+	 */
+	static ObstacleGrid randomMap(int size, double density){
+		ObstacleGrid grid = new ObstacleGrid(size, size);
+		Random random = new Random(size * 1000003L + Double.doubleToLongBits(density));
+		for(int y = 0; y < size; y++){
+			for(int x = 0; x < size; x++){
+				if(random.nextDouble() < density){
+					grid.blockStatic(x, y);
+				}
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Pick start and goal pairs of open cells in the same area, so every query has a path.
+	 *
+	 * @return the starts and the goals, empty if the map has no such pair
+	 */
+	static int[][] pickQueries(ObstacleGrid grid, int count, Random random){
+		ConnectedComponents components = new ConnectedComponents(grid);
+		int[] starts = new int[count];
+		int[] goals = new int[count];
+		int picked = 0;
+		// Plenty of tries for crowded maps, but give up rather than loop forever on a map with no pair
+		for(int tries = 0; picked < count && tries < count * 1000; tries++){
+			int start = random.nextInt(grid.size());
+			int goal = random.nextInt(grid.size());
+			if(start != goal && !grid.isBlocked(start) && !grid.isBlocked(goal) && components.isReachable(start, goal)){
+				starts[picked] = start;
+				goals[picked] = goal;
+				picked++;
+			}
+		}
+		return new int[][] {Arrays.copyOf(starts, picked), Arrays.copyOf(goals, picked)};
+	}
+
+	private void writeCsv(File file) throws IOException {
+		Writer out = new BufferedWriter(new FileWriter(file));
+		try {
+			out.write("map,cells,density,planner,setup_ms,ops_per_s,ops_per_s_error,bytes_per_op,alloc_mb_per_s,expanded_per_op\n");
+			for(Result result : results){
+				out.write(String.format(Locale.ROOT, "%s,%d,%s,%s,%.3f,%.3f,%.3f,%.1f,%.3f,%.1f\n", result.map, result.cells,
+						Double.isNaN(result.density) ? "" : String.valueOf(result.density), result.planner.name().toLowerCase(Locale.ROOT),
+						result.setupMillis, result.opsPerSecond, result.opsPerSecondError, result.bytesPerOp,
+						result.allocMegabytesPerSecond, result.expandedPerOp));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int[] parseInts(String value){
+		String[] parts = value.split(",");
+		int[] parsed = new int[parts.length];
+		for(int i = 0; i < parts.length; i++){
+			parsed[i] = Integer.parseInt(parts[i].trim());
+		}
+		return parsed;
+	}
+
+	private static double mean(double[] values){
+		double sum = 0;
+		for(double value : values){
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	private static double standardDeviation(double[] values){
+		if(values.length < 2){
+			return 0;
+		}
+		double mean = mean(values);
+		double squares = 0;
+		for(double value : values){
+			squares += (value - mean) * (value - mean);
+		}
+		return Math.sqrt(squares / (values.length - 1));
+	}
+}
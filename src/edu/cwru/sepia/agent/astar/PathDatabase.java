@@ -0,0 +1,162 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A compressed path database: for every pair of open cells on a static map the first move of a
+ * shortest path from one to the other, read straight out of a memory-mapped file written by
+ * PathDatabaseBuilder. Following first moves one cell at a time gives a whole shortest path
+ * without any search.
+ *
+ * Each source cell has a row of moves indexed by target cell. Rows are run-length encoded and a
+ * lookup is a binary search over the runs of one row. The file is a sequence of big-endian ints:
+ *
+ * <pre>
+ * magic, xExtent, yExtent, fingerprint (high, low)
+ * rowStart[size + 1]   index of the first run of each source, the last entry is the run count
+ * runs[]               (first target << 4) | direction, direction indexes SearchContext.DX/DY
+ * </pre>
+ *
+ * Targets that are blocked or can not be reached from the source do not matter and just extend
+ * whichever run they fall in, so only reachable targets give meaningful answers.
+ */
+public class PathDatabase {
+	static final int FILE_MAGIC = 0x43504431;
+	static final int HEADER_INTS = 5;
+	static final int DIRECTION_BITS = 4;
+
+	private final int xExtent;
+	private final int yExtent;
+	private final long fingerprint;
+	private final IntBuffer rowStart;
+	private final IntBuffer runs;
+
+	private final int[] path;
+	private int pathLength;
+
+	private PathDatabase(int xExtent, int yExtent, long fingerprint, IntBuffer rowStart, IntBuffer runs){
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		this.fingerprint = fingerprint;
+		this.rowStart = rowStart;
+		this.runs = runs;
+		this.path = new int[xExtent * yExtent];
+	}
+
+	/**
+	 * @return where the database for the grid's map is kept in the directory
+	 */
+	public static File fileFor(File directory, ObstacleGrid grid){
+		return new File(directory, Long.toHexString(grid.staticFingerprint()) + ".cpd");
+	}
+
+	/**
+	 * Map a database file into memory. Only the header is read here, the operating system pages
+	 * in the rows that lookups actually touch.
+	 */
+	public static PathDatabase open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// The mapping stays valid after the channel is closed
+			IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asIntBuffer();
+			if(ints.limit() < HEADER_INTS || ints.get(0) != FILE_MAGIC){
+				throw new IOException("not a path database");
+			}
+			int xExtent = ints.get(1);
+			int yExtent = ints.get(2);
+			long fingerprint = ((long) ints.get(3) << 32) | (ints.get(4) & 0xffffffffL);
+			int size = xExtent * yExtent;
+			if(ints.limit() < HEADER_INTS + size + 1){
+				throw new IOException("path database is truncated");
+			}
+
+			ints.position(HEADER_INTS).limit(HEADER_INTS + size + 1);
+			IntBuffer rowStart = ints.slice();
+			int runCount = rowStart.get(size);
+			ints.limit(ints.capacity()).position(HEADER_INTS + size + 1);
+			if(ints.remaining() < runCount){
+				throw new IOException("path database is truncated");
+			}
+			IntBuffer runs = ints.slice();
+			return new PathDatabase(xExtent, yExtent, fingerprint, rowStart, runs);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return true if the database was built for this grid's size and static layer
+	 */
+	public boolean matches(ObstacleGrid grid){
+		return grid.xExtent == xExtent && grid.yExtent == yExtent && grid.staticFingerprint() == fingerprint;
+	}
+
+	/**
+	 * @return the direction (index into SearchContext.DX/DY) of the first move from the source
+	 * towards the target
+	 */
+	public int firstMove(int source, int target){
+		// Find the last run of the row that starts at or before the target
+		int low = rowStart.get(source);
+		int high = rowStart.get(source + 1) - 1;
+		while(low < high){
+			int middle = (low + high + 1) >>> 1;
+			if((runs.get(middle) >>> DIRECTION_BITS) <= target){
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return runs.get(low) & ((1 << DIRECTION_BITS) - 1);
+	}
+
+	/**
+	 * Follow first moves from the start to the goal. On success the path is available from
+	 * getPath/getPathLength with the first move first and neither the start nor the goal
+	 * included. The goal has to be reachable from the start on the static map.
+	 *
+	 * @return false if the moves lead off the map (the goal was not reachable)
+	 */
+	public boolean extractPath(int start, int goal){
+		pathLength = 0;
+		int current = start;
+		while(pathLength < path.length){
+			int direction = firstMove(current, goal);
+			if(direction >= SearchContext.DX.length){
+				return false;
+			}
+			int x = current % xExtent + SearchContext.DX[direction];
+			int y = current / xExtent + SearchContext.DY[direction];
+			if(x < 0 || y < 0 || x >= xExtent || y >= yExtent){
+				return false;
+			}
+			current = x + y * xExtent;
+			if(current == goal){
+				return true;
+			}
+			path[pathLength++] = current;
+		}
+		pathLength = 0;
+		return false;
+	}
+
+	public int[] getPath(){
+		return path;
+	}
+
+	public int getPathLength(){
+		return pathLength;
+	}
+
+	/**
+	 * @return the number of runs stored for all the rows together
+	 */
+	public int getRunCount(){
+		return runs.limit();
+	}
+}
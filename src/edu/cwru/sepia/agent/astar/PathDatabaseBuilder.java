@@ -0,0 +1,169 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Offline tool that writes the PathDatabase for SEPIA map files. Run it once per map:
+ *
+ * <pre>
+ * java -cp bin:lib/SEPIA.jar edu.cwru.sepia.agent.astar.PathDatabaseBuilder pathdb data/maze_16x16.xml ...
+ * </pre>
+ *
+ * Each map is written to &lt;output directory&gt;/&lt;fingerprint&gt;.cpd where the fingerprint is
+ * ObstacleGrid.staticFingerprint of its resource layout, which is how PathDatabase.fileFor finds
+ * the file for the map AstarAgent is playing.
+ */
+public class PathDatabaseBuilder {
+	// Direction stored for rows that have nowhere to go
+	private static final int NO_MOVE = (1 << PathDatabase.DIRECTION_BITS) - 1;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2) {
+			System.err.println("Usage: PathDatabaseBuilder <output directory> <map.xml>...");
+			System.exit(1);
+		}
+		File outputDirectory = new File(args[0]);
+		for(int i = 1; i < args.length; i++) {
+			ObstacleGrid grid = readMap(new File(args[i]));
+			File output = PathDatabase.fileFor(outputDirectory, grid);
+			long startTime = System.nanoTime();
+			int runs = write(grid, output);
+			System.out.println(args[i] + " -> " + output + ": " + runs + " runs for " + grid.size() + " cells in "
+					+ (System.nanoTime() - startTime) / 1e9 + "s");
+		}
+	}
+
+	/**
+	 * Read the size and resource positions of a SEPIA state file. Resources are the only things
+	 * that never move so they make up the static layer, the same way AstarAgent builds it.
+	 */
+	public static ObstacleGrid readMap(File mapFile) throws Exception {
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(mapFile);
+		Element state = document.getDocumentElement();
+		ObstacleGrid grid = new ObstacleGrid(Integer.parseInt(state.getAttribute("xExtent")), Integer.parseInt(state.getAttribute("yExtent")));
+		NodeList resources = state.getElementsByTagName("resourceNode");
+		for(int i = 0; i < resources.getLength(); i++) {
+			Element resource = (Element) resources.item(i);
+			grid.blockStatic(childInt(resource, "xPosition"), childInt(resource, "yPosition"));
+		}
+		return grid;
+	}
+
+	/**
+	 * Run a breadth first search from every open cell and write the run-length encoded first
+	 * moves to the file.
+	 *
+	 * @return the number of runs written
+	 */
+	public static int write(ObstacleGrid grid, File file) throws IOException {
+		int size = grid.size();
+		int[] rowStart = new int[size + 1];
+		int[] runs = new int[size];
+		int runCount = 0;
+
+		int[] firstMove = new int[size];
+		int[] queue = new int[size];
+		for(int source = 0; source < size; source++) {
+			rowStart[source] = runCount;
+			if(!grid.isStaticBlocked(source)) {
+				firstMoves(grid, source, firstMove, queue);
+			} else {
+				Arrays.fill(firstMove, -1);
+			}
+
+			// Unreachable targets can take any move so they never start a run of their own
+			int current = -1;
+			for(int target = 0; target < size; target++) {
+				int move = firstMove[target];
+				if(move == -1 || move == current) {
+					continue;
+				}
+				if(runCount + 1 > runs.length) {
+					runs = Arrays.copyOf(runs, runs.length * 2);
+				}
+				// The first run of a row covers everything before it as well
+				runs[runCount++] = ((current == -1 ? 0 : target) << PathDatabase.DIRECTION_BITS) | move;
+				current = move;
+			}
+			if(current == -1) {
+				if(runCount + 1 > runs.length) {
+					runs = Arrays.copyOf(runs, runs.length * 2);
+				}
+				runs[runCount++] = NO_MOVE;
+			}
+		}
+		rowStart[size] = runCount;
+
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			long fingerprint = grid.staticFingerprint();
+			out.writeInt(PathDatabase.FILE_MAGIC);
+			out.writeInt(grid.xExtent);
+			out.writeInt(grid.yExtent);
+			out.writeInt((int) (fingerprint >>> 32));
+			out.writeInt((int) fingerprint);
+			for(int start : rowStart) {
+				out.writeInt(start);
+			}
+			for(int i = 0; i < runCount; i++) {
+				out.writeInt(runs[i]);
+			}
+		} finally {
+			out.close();
+		}
+		return runCount;
+	}
+
+	/**
+	 * Breadth first search from the source where every cell remembers which way the source first
+	 * stepped to reach it. The source itself and anything unreachable get -1.
+	 */
+	private static void firstMoves(ObstacleGrid grid, int source, int[] firstMove, int[] queue){
+		Arrays.fill(firstMove, -1);
+		int head = 0;
+		int tail = 0;
+		int sourceX = source % grid.xExtent;
+		int sourceY = source / grid.xExtent;
+		for(int d = 0; d < SearchContext.DX.length; d++) {
+			int nx = sourceX + SearchContext.DX[d];
+			int ny = sourceY + SearchContext.DY[d];
+			if(grid.inBounds(nx, ny) && !grid.isStaticBlocked(grid.cellIndex(nx, ny))) {
+				firstMove[grid.cellIndex(nx, ny)] = d;
+				queue[tail++] = grid.cellIndex(nx, ny);
+			}
+		}
+		while(head < tail) {
+			int current = queue[head++];
+			int x = current % grid.xExtent;
+			int y = current / grid.xExtent;
+			for(int d = 0; d < SearchContext.DX.length; d++) {
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(!grid.inBounds(nx, ny)) {
+					continue;
+				}
+				int next = grid.cellIndex(nx, ny);
+				if(next != source && firstMove[next] == -1 && !grid.isStaticBlocked(next)) {
+					firstMove[next] = firstMove[current];
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	private static int childInt(Element parent, String tag){
+		return Integer.parseInt(parent.getElementsByTagName(tag).item(0).getTextContent().trim());
+	}
+}
@@ -0,0 +1,180 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Answers shortest path queries on one map from any number of threads, for offline work such as
+ * scoring map layouts that needs a great many of them.
+ *
+ * The service takes a snapshot of the grid when it is made and never changes it, so every thread
+ * can read it without locking. What a search writes to (costs, stamps, the open list) is kept in a
+ * SearchContext per thread. Batches are split across a ForkJoinPool and every worker only touches
+ * its own scratch space, so they do not have to wait on each other.
+ *
+ * The open areas of the snapshot are labelled once up front, so a query with a blocked end or
+ * with its ends in different areas is answered without searching.
+ */
+public class PathService {
+	public static final int UNREACHABLE = -1;
+
+	// Queries per task below which a batch is not split any further
+	private static final int MIN_BATCH = 16;
+
+	private final ObstacleGrid grid;
+	// cell -> the open area it belongs to, read by every thread
+	private final int[] areas;
+	private final LandmarkHeuristic landmarks;
+	private final ForkJoinPool pool;
+	private final ThreadLocal<GridAstar> searches;
+
+	public PathService(ObstacleGrid grid){
+		this(grid, null, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param grid the map, both of its layers are copied and everything blocked stays blocked
+	 * @param landmarks landmark tables for the map or null to only use the diagonal distance
+	 * @param pool where batches run
+	 */
+	public PathService(ObstacleGrid grid, LandmarkHeuristic landmarks, ForkJoinPool pool){
+		ObstacleGrid snapshot = new ObstacleGrid(grid);
+		for(int cell = 0; cell < grid.size(); cell++){
+			if(grid.isBlocked(cell) && !snapshot.isBlocked(cell)){
+				snapshot.blockStatic(cell % grid.xExtent, cell / grid.xExtent);
+			}
+		}
+		this.grid = snapshot;
+		// Copied out since the union-find tidies itself up on every lookup
+		ConnectedComponents components = new ConnectedComponents(snapshot);
+		this.areas = new int[snapshot.size()];
+		for(int cell = 0; cell < areas.length; cell++){
+			areas[cell] = components.componentOf(cell);
+		}
+		this.landmarks = landmarks;
+		this.pool = pool;
+		// Every move costs 1 so the f-costs are small whole numbers a bucket queue can index
+		this.searches = ThreadLocal.withInitial(() -> new GridAstar(new SearchContext(this.grid, true), this.landmarks));
+	}
+
+	/**
+	 * Find a shortest path from the start to the goal on the calling thread.
+	 *
+	 * @return the path with neither the start nor the goal as a step, or null if there is none
+	 */
+	public PackedPath findPath(int start, int goal){
+		if(!isReachable(start, goal)){
+			return null;
+		}
+		GridAstar search = searches.get();
+		if(!search.search(start, goal)){
+			return null;
+		}
+		SearchContext context = search.getContext();
+		return new PackedPath(grid.xExtent, start, context.getPath(), context.getPathLength());
+	}
+
+	/**
+	 * @return the number of moves from the start to the goal or UNREACHABLE
+	 */
+	public int distance(int start, int goal){
+		if(!isReachable(start, goal)){
+			return UNREACHABLE;
+		}
+		if(start == goal){
+			return 0;
+		}
+		GridAstar search = searches.get();
+		return search.search(start, goal) ? search.getContext().getPathLength() + 1 : UNREACHABLE;
+	}
+
+	/**
+	 * Find a path for every (starts[i], goals[i]) pair in parallel.
+	 *
+	 * @return the path for each pair, null where there is none
+	 */
+	public PackedPath[] findPaths(final int[] starts, final int[] goals){
+		checkBatch(starts, goals);
+		final PackedPath[] paths = new PackedPath[starts.length];
+		pool.invoke(new Batch(query -> paths[query] = findPath(starts[query], goals[query]), 0, starts.length, splitSize(starts.length)));
+		return paths;
+	}
+
+	/**
+	 * Count the moves for every (starts[i], goals[i]) pair in parallel. No paths are kept so this
+	 * is the cheaper of the two batch calls.
+	 *
+	 * @return the moves for each pair or UNREACHABLE
+	 */
+	public int[] distances(final int[] starts, final int[] goals){
+		checkBatch(starts, goals);
+		final int[] moves = new int[starts.length];
+		pool.invoke(new Batch(query -> moves[query] = distance(starts[query], goals[query]), 0, starts.length, splitSize(starts.length)));
+		return moves;
+	}
+
+	/**
+	 * @return true if both cells are open and in the same area, so a path between them exists
+	 */
+	public boolean isReachable(int start, int goal){
+		return !grid.isBlocked(start) && !grid.isBlocked(goal) && areas[start] == areas[goal];
+	}
+
+	public int getXExtent(){
+		return grid.xExtent;
+	}
+
+	public int getYExtent(){
+		return grid.yExtent;
+	}
+
+	public ForkJoinPool getPool(){
+		return pool;
+	}
+
+	private int splitSize(int queries){
+		// A few tasks per worker so the ones that finish early can steal from the rest
+		return Math.max(MIN_BATCH, queries / (pool.getParallelism() * 8));
+	}
+
+	private static void checkBatch(int[] starts, int[] goals){
+		if(starts.length != goals.length){
+			throw new IllegalArgumentException(starts.length + " starts but " + goals.length + " goals");
+		}
+	}
+
+	private interface Query {
+		void answer(int query);
+	}
+
+	/**
+	 * A range of queries that halves itself until it is small enough to answer in one go.
+	 */
+	private static class Batch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Query query;
+		private final int from;
+		private final int to;
+		private final int splitSize;
+
+		Batch(Query query, int from, int to, int splitSize){
+			this.query = query;
+			this.from = from;
+			this.to = to;
+			this.splitSize = splitSize;
+		}
+
+		@Override
+		protected void compute(){
+			if(to - from <= splitSize){
+				for(int i = from; i < to; i++){
+					query.answer(i);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Batch(query, from, middle, splitSize), new Batch(query, middle, to, splitSize));
+		}
+	}
+}
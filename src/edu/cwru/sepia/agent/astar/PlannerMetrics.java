@@ -0,0 +1,314 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What the planners did over one episode: open list work, replans by reason, repairs, the length
+ * of every path, the time every planning call took and, for planners that may return longer than
+ * shortest paths, how close to the shortest each search could prove its path was. Written out at
+ * the end of the episode as a JSON document and as one row of a CSV file, so runs can be compared
+ * without reading the console.
+ *
+ * Labels (the planner mode, the map, ...) go first in both so rows from different runs can be
+ * told apart.
+ */
+public class PlannerMetrics {
+	// Latencies are kept to within 1/64 of their value
+	private static final int HISTOGRAM_PRECISION = 7;
+
+	private final Map<String, String> labels = new LinkedHashMap<String, String>();
+	private long expanded;
+	private long generated;
+	private long decreaseKeys;
+	// reason -> replans, in the order the reasons were given so CSV columns stay put
+	private final Map<String, Long> replans = new LinkedHashMap<String, Long>();
+	private long repairs;
+	private final Histogram planLatency = new Histogram(HISTOGRAM_PRECISION);
+	private final Histogram pathLengths = new Histogram(HISTOGRAM_PRECISION);
+	// achieved suboptimality bounds and the expansions each of those searches took
+	private long boundCount;
+	private double boundSum;
+	private double boundMax;
+	private final Histogram boundedExpansions = new Histogram(HISTOGRAM_PRECISION);
+
+	/**
+	 * @param replanReasons every reason recordReplan will be given, each gets a column even when
+	 * it never happens
+	 */
+	public PlannerMetrics(String... replanReasons){
+		for(String reason : replanReasons){
+			replans.put(reason, 0L);
+		}
+	}
+
+	/**
+	 * Set a value that describes the episode rather than measures it.
+	 */
+	public void setLabel(String name, Object value){
+		labels.put(name, String.valueOf(value));
+	}
+
+	/**
+	 * Count one call into a planner that took the given time.
+	 */
+	public void recordPlan(long nanos){
+		planLatency.record(nanos);
+	}
+
+	public void recordReplan(String reason){
+		Long count = replans.get(reason);
+		replans.put(reason, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Count a replan that only searched again around the blocked part of the path.
+	 */
+	public void recordRepair(){
+		repairs++;
+	}
+
+	/**
+	 * Count a new path with the given number of steps.
+	 */
+	public void recordPath(int steps){
+		pathLengths.record(steps);
+	}
+
+	/**
+	 * Count a search of a bounded suboptimal planner.
+	 *
+	 * @param achieved how many times the shortest path its path is at most
+	 * @param expansions the nodes it expanded
+	 */
+	public void recordBound(double achieved, int expansions){
+		boundCount++;
+		boundSum += achieved;
+		boundMax = Math.max(boundMax, achieved);
+		boundedExpansions.record(expansions);
+	}
+
+	/**
+	 * Add everything an open list has done to the search counts. Call once per open list at the
+	 * end of the episode.
+	 */
+	public void addSearchCounts(OpenList open){
+		expanded += open.getPollCount();
+		generated += open.getAddCount();
+		decreaseKeys += open.getDecreaseCount();
+	}
+
+	/**
+	 * Add expansions taken off a list whose adds are already counted with addSearchCounts, like
+	 * the focal list of a focal search.
+	 */
+	public void addExpanded(long count){
+		expanded += count;
+	}
+
+	public long getExpanded(){
+		return expanded;
+	}
+
+	public long getGenerated(){
+		return generated;
+	}
+
+	public long getDecreaseKeys(){
+		return decreaseKeys;
+	}
+
+	public long getReplans(){
+		long total = 0;
+		for(long count : replans.values()){
+			total += count;
+		}
+		return total;
+	}
+
+	public long getReplans(String reason){
+		Long count = replans.get(reason);
+		return count == null ? 0 : count;
+	}
+
+	public long getRepairs(){
+		return repairs;
+	}
+
+	/**
+	 * @return the mean of the achieved bounds or 0 if there are none
+	 */
+	public double getMeanBound(){
+		return boundCount == 0 ? 0 : boundSum / boundCount;
+	}
+
+	/**
+	 * @return the loosest achieved bound or 0 if there are none
+	 */
+	public double getMaxBound(){
+		return boundMax;
+	}
+
+	/**
+	 * @return the nodes expanded by each search of a bounded suboptimal planner
+	 */
+	public Histogram getBoundedExpansions(){
+		return boundedExpansions;
+	}
+
+	/**
+	 * @return the time each planning call took in nsecs
+	 */
+	public Histogram getPlanLatency(){
+		return planLatency;
+	}
+
+	/**
+	 * @return the number of steps in each new path
+	 */
+	public Histogram getPathLengths(){
+		return pathLengths;
+	}
+
+	public void writeJson(File file) throws IOException {
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		Writer out = new BufferedWriter(new FileWriter(file));
+		try {
+			writeJson(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public void writeJson(Writer out) throws IOException {
+		out.write("{\n");
+		for(Map.Entry<String, String> label : labels.entrySet()){
+			out.write("  " + quote(label.getKey()) + ": " + quote(label.getValue()) + ",\n");
+		}
+		out.write("  \"expanded\": " + expanded + ",\n");
+		out.write("  \"generated\": " + generated + ",\n");
+		out.write("  \"decreaseKeys\": " + decreaseKeys + ",\n");
+		out.write("  \"replans\": " + getReplans() + ",\n");
+		out.write("  \"replanReasons\": {");
+		String separator = "";
+		for(Map.Entry<String, Long> reason : replans.entrySet()){
+			out.write(separator + quote(reason.getKey()) + ": " + reason.getValue());
+			separator = ", ";
+		}
+		out.write("},\n");
+		out.write("  \"repairs\": " + repairs + ",\n");
+		out.write("  \"planLatencyNanos\": " + histogramJson(planLatency) + ",\n");
+		out.write("  \"pathLength\": " + histogramJson(pathLengths) + ",\n");
+		out.write("  \"achievedBound\": {\"count\": " + boundCount + ", \"mean\": " + formatBound(getMeanBound())
+				+ ", \"max\": " + formatBound(boundMax) + "},\n");
+		out.write("  \"boundedExpansions\": " + histogramJson(boundedExpansions) + "\n");
+		out.write("}\n");
+	}
+
+	/**
+	 * Add the episode as a row to the CSV file, starting the file with a header if it is new.
+	 */
+	public void appendCsv(File file) throws IOException {
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		boolean header = !file.exists() || file.length() == 0;
+		Writer out = new BufferedWriter(new FileWriter(file, true));
+		try {
+			if(header){
+				out.write(csvHeader() + "\n");
+			}
+			out.write(csvRow() + "\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	public String csvHeader(){
+		StringBuilder header = new StringBuilder();
+		for(String label : labels.keySet()){
+			header.append(csvField(label)).append(',');
+		}
+		header.append("expanded,generated,decrease_keys,replans");
+		for(String reason : replans.keySet()){
+			header.append(",replans_").append(csvField(reason.toLowerCase(Locale.ROOT)));
+		}
+		header.append(",repairs,plans,plan_ns_total,plan_ns_mean,plan_ns_p50,plan_ns_p90,plan_ns_p99,plan_ns_max");
+		header.append(",paths,path_length_mean,path_length_max");
+		header.append(",bounded_searches,bound_mean,bound_max,bounded_expansions_mean,bounded_expansions_p99");
+		return header.toString();
+	}
+
+	public String csvRow(){
+		StringBuilder row = new StringBuilder();
+		for(String value : labels.values()){
+			row.append(csvField(value)).append(',');
+		}
+		row.append(expanded).append(',').append(generated).append(',').append(decreaseKeys).append(',').append(getReplans());
+		for(long count : replans.values()){
+			row.append(',').append(count);
+		}
+		row.append(',').append(repairs);
+		row.append(',').append(planLatency.getCount());
+		row.append(',').append(planLatency.getSum());
+		row.append(',').append(format(planLatency.getMean()));
+		row.append(',').append(planLatency.getValueAtPercentile(50));
+		row.append(',').append(planLatency.getValueAtPercentile(90));
+		row.append(',').append(planLatency.getValueAtPercentile(99));
+		row.append(',').append(planLatency.getMax());
+		row.append(',').append(pathLengths.getCount());
+		row.append(',').append(format(pathLengths.getMean()));
+		row.append(',').append(pathLengths.getMax());
+		row.append(',').append(boundCount);
+		row.append(',').append(formatBound(getMeanBound()));
+		row.append(',').append(formatBound(boundMax));
+		row.append(',').append(format(boundedExpansions.getMean()));
+		row.append(',').append(boundedExpansions.getValueAtPercentile(99));
+		return row.toString();
+	}
+
+	private static String histogramJson(Histogram histogram){
+		return "{\"count\": " + histogram.getCount()
+				+ ", \"total\": " + histogram.getSum()
+				+ ", \"min\": " + histogram.getMin()
+				+ ", \"mean\": " + format(histogram.getMean())
+				+ ", \"p50\": " + histogram.getValueAtPercentile(50)
+				+ ", \"p90\": " + histogram.getValueAtPercentile(90)
+				+ ", \"p99\": " + histogram.getValueAtPercentile(99)
+				+ ", \"p999\": " + histogram.getValueAtPercentile(99.9)
+				+ ", \"max\": " + histogram.getMax() + "}";
+	}
+
+	private static String format(double value){
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	private static String formatBound(double value){
+		return String.format(Locale.ROOT, "%.4f", value);
+	}
+
+	private static String quote(String value){
+		StringBuilder quoted = new StringBuilder("\"");
+		for(char c : value.toCharArray()){
+			if(c == '"' || c == '\\'){
+				quoted.append('\\').append(c);
+			} else if(c < 0x20){
+				quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	private static String csvField(String value){
+		if(value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1){
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
@@ -0,0 +1,143 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Which cells are taken at which time steps, for planners that move through (x, y, t).
+ *
+ * Single time steps are kept in an open addressing hash set of (cell, time) pairs since only a
+ * handful of cells per step are ever reserved. A cell can also be reserved from a time step on
+ * for good, for a unit that is expected to stop there.
+ */
+public class ReservationTable {
+	private static final long EMPTY = -1;
+
+	// (cell << 32 | time) keys, EMPTY for a free slot
+	private long[] keys = new long[64];
+	private int count;
+
+	// cell -> the time it is taken from for good, Integer.MAX_VALUE if never
+	private final int[] permanentFrom;
+	private int[] permanentCells = new int[4];
+	private int permanentCount;
+
+	public ReservationTable(int cellCount){
+		this.permanentFrom = new int[cellCount];
+		Arrays.fill(permanentFrom, Integer.MAX_VALUE);
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 * Take the cell at a single time step.
+	 */
+	public void reserve(int cell, int time){
+		if((count + 1) * 2 > keys.length){
+			grow();
+		}
+		if(insert(keys, key(cell, time))){
+			count++;
+		}
+	}
+
+	/**
+	 * Take the cell at the time step and every one after it.
+	 */
+	public void reserveFrom(int cell, int time){
+		if(permanentFrom[cell] == Integer.MAX_VALUE){
+			if(permanentCount == permanentCells.length){
+				permanentCells = Arrays.copyOf(permanentCells, permanentCount * 2);
+			}
+			permanentCells[permanentCount++] = cell;
+		}
+		permanentFrom[cell] = Math.min(permanentFrom[cell], time);
+	}
+
+	/**
+	 * Give back a single time step reservation. Reservations from a time step on are not affected.
+	 */
+	public void release(int cell, int time){
+		long key = key(cell, time);
+		int mask = keys.length - 1;
+		int slot = slot(key, keys.length);
+		while(keys[slot] != key){
+			if(keys[slot] == EMPTY){
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		// Pull later keys of the same probe run back into the hole so they can still be found
+		int hole = slot;
+		for(int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask){
+			int home = slot(keys[next], keys.length);
+			if(((next - home) & mask) >= ((next - hole) & mask)){
+				keys[hole] = keys[next];
+				hole = next;
+			}
+		}
+		keys[hole] = EMPTY;
+		count--;
+	}
+
+	public boolean isReserved(int cell, int time){
+		if(time >= permanentFrom[cell]){
+			return true;
+		}
+		long key = key(cell, time);
+		for(int slot = slot(key, keys.length); keys[slot] != EMPTY; slot = (slot + 1) & (keys.length - 1)){
+			if(keys[slot] == key){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isEmpty(){
+		return count == 0 && permanentCount == 0;
+	}
+
+	public void clear(){
+		if(count > 0){
+			Arrays.fill(keys, EMPTY);
+			count = 0;
+		}
+		for(int i = 0; i < permanentCount; i++){
+			permanentFrom[permanentCells[i]] = Integer.MAX_VALUE;
+		}
+		permanentCount = 0;
+	}
+
+	private void grow(){
+		long[] grown = new long[keys.length * 2];
+		Arrays.fill(grown, EMPTY);
+		for(long key : keys){
+			if(key != EMPTY){
+				insert(grown, key);
+			}
+		}
+		keys = grown;
+	}
+
+	/**
+	 * @return false if the key was already in the table
+	 */
+	private static boolean insert(long[] table, long key){
+		int slot = slot(key, table.length);
+		while(table[slot] != EMPTY){
+			if(table[slot] == key){
+				return false;
+			}
+			slot = (slot + 1) & (table.length - 1);
+		}
+		table[slot] = key;
+		return true;
+	}
+
+	private static long key(int cell, int time){
+		return ((long) cell << 32) | time;
+	}
+
+	private static int slot(long key, int length){
+		long mixed = key * 0x9E3779B97F4A7C15L;
+		return (int) (mixed >>> 32) & (length - 1);
+	}
+}
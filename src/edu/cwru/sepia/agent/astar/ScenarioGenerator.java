@@ -0,0 +1,702 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Offline tool that writes a random SEPIA map and a configuration to play it:
+ *
+ * <pre>
+ * java -cp bin:lib/SEPIA.jar edu.cwru.sepia.agent.astar.ScenarioGenerator [options] &lt;output map.xml&gt;
+ * </pre>
+ *
+ * The configuration is written next to the map as &lt;name&gt;_config.xml, like the ones in data/.
+ * Options:
+ * <pre>
+ * -size 256x256              width and height, or one number for a square map
+ * -topology open|maze|rooms  random trees only, a maze with one cell wide corridors or a grid of
+ *                            rooms joined by doors
+ * -density 0.2               share of the open cells that get a tree at random, by default 0.2
+ *                            for open maps and 0 for the others
+ * -room 8                    inside width of a room
+ * -units 0:Footman=1         units of a player, may be given once per player, by default
+ *                            0:Footman=1 and 1:TownHall=1
+ * -mines 0 -mineAmount 100   gold mines and the gold in each
+ * -treeAmount 100            wood in each tree
+ * -gold 0 -wood 0            what every player starts with
+ * -agent 0:edu.cwru.sepia.agent.AstarAgent[:argument...]
+ *                            agent of a player, may be given more than once
+ * -midas 200,200             win on gathering that much gold and wood instead of by conquest
+ * -episodes 10               episodes to run
+ * -templates data/maze_8x8.xml
+ *                            map whose players' unit and upgrade templates are copied
+ * -seed 0
+ * </pre>
+ *
+ * Every tree and mine is a resource node, which is what blocks movement in SEPIA. Each player's
+ * units start around their own corner, on the nearest free cells of the largest open area so
+ * every unit can reach every other one. Mines only go where all eight neighbours are open so
+ * they never cut that area apart.
+ *
+ * The map file is written a line at a time rather than built as a document, so maps with
+ * millions of trees do not have to fit in memory twice.
+ */
+public class ScenarioGenerator {
+	private enum Topology {
+		OPEN, MAZE, ROOMS
+	}
+
+	/**
+	 * What the generator needs from one unit template of the template map.
+	 */
+	private static class UnitType {
+		int id;
+		int baseHealth;
+		int foodCost;
+		int foodProvided;
+	}
+
+	/**
+	 * A player's templates copied from the template map.
+	 */
+	private static class PlayerTemplates {
+		final Map<String, UnitType> units = new LinkedHashMap<String, UnitType>();
+		final StringBuilder xml = new StringBuilder();
+	}
+
+	private int width = 64;
+	private int height = 64;
+	private Topology topology = Topology.OPEN;
+	private double density = Double.NaN;
+	private int roomSize = 8;
+	// player -> unit name -> count, by player
+	private final Map<Integer, Map<String, Integer>> units = new TreeMap<Integer, Map<String, Integer>>();
+	private int mines;
+	private int mineAmount = 100;
+	private int treeAmount = 100;
+	private int startGold;
+	private int startWood;
+	// player -> agent class and arguments, in the order given
+	private final List<Object[]> agents = new ArrayList<Object[]>();
+	private int requiredGold = -1;
+	private int requiredWood = -1;
+	private int episodes = 10;
+	private File templateMap = new File("data/maze_8x8.xml");
+	private long seed;
+	private File output;
+
+	private ObstacleGrid grid;
+	private Random random;
+
+	public static void main(String[] args) throws Exception {
+		ScenarioGenerator generator = new ScenarioGenerator();
+		try {
+			generator.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: ScenarioGenerator [-size WxH] [-topology open|maze|rooms] [-density d] [-room n]"
+					+ " [-units player:Name=count,...] [-mines n] [-mineAmount n] [-treeAmount n] [-gold n] [-wood n]"
+					+ " [-agent player:class[:argument...]] [-midas gold,wood] [-episodes n] [-templates map.xml] [-seed n]"
+					+ " <output map.xml>");
+			System.exit(1);
+		}
+		long startTime = System.nanoTime();
+		try {
+			generator.generate();
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		System.out.println(generator.output + ": " + generator.width + "x" + generator.height + " " + generator.topology.name().toLowerCase()
+				+ " in " + (System.nanoTime() - startTime) / 1e9 + "s");
+	}
+
+	private void parse(String[] args){
+		for(int i = 0; i < args.length; i++){
+			String option = args[i];
+			if(!option.startsWith("-")){
+				if(output != null){
+					throw new IllegalArgumentException("Only one output map can be given");
+				}
+				output = new File(option);
+				continue;
+			}
+			if(i + 1 == args.length){
+				throw new IllegalArgumentException(option + " needs a value");
+			}
+			String value = args[++i];
+			try {
+				if(option.equals("-size")){
+					String[] parts = value.toLowerCase().split("x");
+					width = Integer.parseInt(parts[0]);
+					height = parts.length > 1 ? Integer.parseInt(parts[1]) : width;
+				} else if(option.equals("-topology")){
+					topology = Topology.valueOf(value.toUpperCase());
+				} else if(option.equals("-density")){
+					density = Double.parseDouble(value);
+				} else if(option.equals("-room")){
+					roomSize = Integer.parseInt(value);
+				} else if(option.equals("-units")){
+					int colon = value.indexOf(':');
+					Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+					for(String entry : value.substring(colon + 1).split(",")){
+						String[] nameAndCount = entry.split("=");
+						counts.put(nameAndCount[0].trim(), nameAndCount.length > 1 ? Integer.parseInt(nameAndCount[1].trim()) : 1);
+					}
+					units.put(Integer.parseInt(value.substring(0, colon)), counts);
+				} else if(option.equals("-mines")){
+					mines = Integer.parseInt(value);
+				} else if(option.equals("-mineAmount")){
+					mineAmount = Integer.parseInt(value);
+				} else if(option.equals("-treeAmount")){
+					treeAmount = Integer.parseInt(value);
+				} else if(option.equals("-gold")){
+					startGold = Integer.parseInt(value);
+				} else if(option.equals("-wood")){
+					startWood = Integer.parseInt(value);
+				} else if(option.equals("-agent")){
+					String[] parts = value.split(":");
+					if(parts.length < 2){
+						throw new IllegalArgumentException("-agent needs a player and a class but was " + value);
+					}
+					agents.add(new Object[] {Integer.parseInt(parts[0]), Arrays.copyOfRange(parts, 1, parts.length)});
+				} else if(option.equals("-midas")){
+					String[] parts = value.split(",");
+					requiredGold = Integer.parseInt(parts[0].trim());
+					requiredWood = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 0;
+				} else if(option.equals("-episodes")){
+					episodes = Integer.parseInt(value);
+				} else if(option.equals("-templates")){
+					templateMap = new File(value);
+				} else if(option.equals("-seed")){
+					seed = Long.parseLong(value);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+				throw new IllegalArgumentException(option + " " + value + " is not valid");
+			}
+		}
+		if(output == null){
+			throw new IllegalArgumentException("No output map given");
+		}
+		if(width < 2 || height < 2){
+			throw new IllegalArgumentException("The map must be at least 2x2 but was " + width + "x" + height);
+		}
+		if(roomSize < 1){
+			throw new IllegalArgumentException("-room must be at least 1 but was " + roomSize);
+		}
+		if(Double.isNaN(density)){
+			density = topology == Topology.OPEN ? 0.2 : 0;
+		}
+		if(units.isEmpty()){
+			units.put(0, new LinkedHashMap<String, Integer>());
+			units.get(0).put("Footman", 1);
+			units.put(1, new LinkedHashMap<String, Integer>());
+			units.get(1).put("TownHall", 1);
+		}
+		if(agents.isEmpty()){
+			agents.add(new Object[] {0, new String[] {"edu.cwru.sepia.agent.AstarAgent"}});
+		}
+	}
+
+	private void generate() throws Exception {
+		Map<Integer, PlayerTemplates> templates = new TreeMap<Integer, PlayerTemplates>();
+		int nextTemplateID = readTemplates(templates);
+		for(Map.Entry<Integer, Map<String, Integer>> player : units.entrySet()){
+			PlayerTemplates playerTemplates = templates.get(player.getKey());
+			if(playerTemplates == null){
+				throw new IllegalArgumentException(templateMap + " has no player " + player.getKey());
+			}
+			for(String name : player.getValue().keySet()){
+				if(!playerTemplates.units.containsKey(name)){
+					throw new IllegalArgumentException(templateMap + " has no unit " + name + " for player " + player.getKey());
+				}
+			}
+		}
+
+		random = new Random(seed);
+		grid = new ObstacleGrid(width, height);
+		switch(topology){
+		case MAZE:
+			carveMaze();
+			break;
+		case ROOMS:
+			buildRooms();
+			break;
+		default:
+			break;
+		}
+		for(int cell = 0; cell < grid.size(); cell++){
+			if(!grid.isStaticBlocked(cell) && random.nextDouble() < density){
+				grid.blockStatic(cell % width, cell / width);
+			}
+		}
+
+		boolean[] area = largestArea();
+		// player -> cells of its units, in the order the units were listed
+		Map<Integer, int[]> unitCells = new TreeMap<Integer, int[]>();
+		boolean[] taken = new boolean[grid.size()];
+		int corner = 0;
+		for(Map.Entry<Integer, Map<String, Integer>> player : units.entrySet()){
+			int count = 0;
+			for(int unitCount : player.getValue().values()){
+				count += unitCount;
+			}
+			unitCells.put(player.getKey(), placeAround(baseCell(corner++), count, area, taken));
+		}
+		int[] mineCells = placeMines(area, taken);
+
+		writeMap(templates, nextTemplateID, unitCells, mineCells);
+		writeConfig();
+	}
+
+	/**
+	 * Copy every player's templates from the template map.
+	 *
+	 * @return the template map's next template ID
+	 */
+	private int readTemplates(Map<Integer, PlayerTemplates> templates) throws Exception {
+		Element state = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(templateMap).getDocumentElement();
+		Transformer transformer = TransformerFactory.newInstance().newTransformer();
+		transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+		NodeList players = state.getElementsByTagName("player");
+		for(int i = 0; i < players.getLength(); i++){
+			Element player = (Element) players.item(i);
+			PlayerTemplates playerTemplates = new PlayerTemplates();
+			for(Node child = player.getFirstChild(); child != null; child = child.getNextSibling()){
+				if(!(child instanceof Element) || !child.getNodeName().equals("template")){
+					continue;
+				}
+				Element template = (Element) child;
+				if(template.getAttribute("xsi:type").equals("UnitTemplate")){
+					UnitType type = new UnitType();
+					type.id = childInt(template, "ID");
+					type.baseHealth = childInt(template, "baseHealth");
+					type.foodCost = childInt(template, "foodCost");
+					type.foodProvided = childInt(template, "foodProvided");
+					playerTemplates.units.put(childText(template, "name"), type);
+				}
+				StringWriter xml = new StringWriter();
+				transformer.transform(new DOMSource(template), new StreamResult(xml));
+				playerTemplates.xml.append("        ").append(xml).append('\n');
+			}
+			templates.put(childInt(player, "ID"), playerTemplates);
+		}
+		return Integer.parseInt(state.getAttribute("nextTemplateID"));
+	}
+
+	/**
+	 * Block everything then carve a maze with a depth first search over the cells with odd
+	 * coordinates, knocking down the wall between each cell and the one it was reached from.
+	 */
+	private void carveMaze(){
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				grid.blockStatic(x, y);
+			}
+		}
+		int columns = width / 2;
+		int rows = height / 2;
+		boolean[] visited = new boolean[columns * rows];
+		int[] stack = new int[columns * rows];
+		int[] order = {0, 1, 2, 3};
+		int[][] steps = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+		int top = 0;
+		stack[top++] = 0;
+		visited[0] = true;
+		grid.unblockStatic(grid.cellIndex(1, 1));
+		while(top > 0){
+			int current = stack[top - 1];
+			int column = current % columns;
+			int row = current / columns;
+			shuffle(order);
+			boolean moved = false;
+			for(int i : order){
+				int nextColumn = column + steps[i][0];
+				int nextRow = row + steps[i][1];
+				if(nextColumn < 0 || nextRow < 0 || nextColumn >= columns || nextRow >= rows || visited[nextColumn + nextRow * columns]){
+					continue;
+				}
+				int next = nextColumn + nextRow * columns;
+				visited[next] = true;
+				grid.unblockStatic(grid.cellIndex(2 * column + 1 + steps[i][0], 2 * row + 1 + steps[i][1]));
+				grid.unblockStatic(grid.cellIndex(2 * nextColumn + 1, 2 * nextRow + 1));
+				stack[top++] = next;
+				moved = true;
+				break;
+			}
+			if(!moved){
+				top--;
+			}
+		}
+	}
+
+	/**
+	 * Wall off a grid of rooms and open doors along a random spanning tree of them, plus a quarter
+	 * of the other walls so there is more than one way around.
+	 */
+	private void buildRooms(){
+		int pitch = roomSize + 1;
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				// No wall along the far edges, there is no room behind it
+				if((x % pitch == roomSize && x < width - 1) || (y % pitch == roomSize && y < height - 1)){
+					grid.blockStatic(x, y);
+				}
+			}
+		}
+		int columns = (width + pitch - 1) / pitch;
+		int rows = (height + pitch - 1) / pitch;
+		// Every wall between two rooms as {room, neighbour, 0 for east or 1 for south}
+		List<int[]> walls = new ArrayList<int[]>();
+		for(int row = 0; row < rows; row++){
+			for(int column = 0; column < columns; column++){
+				int room = column + row * columns;
+				if((column + 1) * pitch < width){
+					walls.add(new int[] {room, room + 1, 0});
+				}
+				if((row + 1) * pitch < height){
+					walls.add(new int[] {room, room + columns, 1});
+				}
+			}
+		}
+		for(int i = walls.size() - 1; i > 0; i--){
+			walls.set(i, walls.set(random.nextInt(i + 1), walls.get(i)));
+		}
+		int[] parent = new int[columns * rows];
+		for(int room = 0; room < parent.length; room++){
+			parent[room] = room;
+		}
+		int doorWidth = Math.max(1, roomSize / 4);
+		for(int[] wall : walls){
+			int a = find(parent, wall[0]);
+			int b = find(parent, wall[1]);
+			if(a != b){
+				parent[a] = b;
+			} else if(random.nextDouble() >= 0.25){
+				continue;
+			}
+			int column = wall[0] % columns;
+			int row = wall[0] / columns;
+			if(wall[2] == 0){
+				int x = column * pitch + roomSize;
+				int span = Math.min(roomSize, height - row * pitch);
+				int start = row * pitch + random.nextInt(Math.max(1, span - doorWidth + 1));
+				for(int y = start; y < Math.min(start + doorWidth, row * pitch + span); y++){
+					grid.unblockStatic(grid.cellIndex(x, y));
+				}
+			} else {
+				int y = row * pitch + roomSize;
+				int span = Math.min(roomSize, width - column * pitch);
+				int start = column * pitch + random.nextInt(Math.max(1, span - doorWidth + 1));
+				for(int x = start; x < Math.min(start + doorWidth, column * pitch + span); x++){
+					grid.unblockStatic(grid.cellIndex(x, y));
+				}
+			}
+		}
+	}
+
+	private static int find(int[] parent, int room){
+		while(parent[room] != room){
+			parent[room] = parent[parent[room]];
+			room = parent[room];
+		}
+		return room;
+	}
+
+	private void shuffle(int[] values){
+		for(int i = values.length - 1; i > 0; i--){
+			int j = random.nextInt(i + 1);
+			int swap = values[i];
+			values[i] = values[j];
+			values[j] = swap;
+		}
+	}
+
+	/**
+	 * @return which cells are in the largest open area
+	 */
+	private boolean[] largestArea(){
+		ConnectedComponents components = new ConnectedComponents(grid);
+		Map<Integer, Integer> sizes = new LinkedHashMap<Integer, Integer>();
+		int largest = -1;
+		int largestSize = 0;
+		for(int cell = 0; cell < grid.size(); cell++){
+			if(grid.isBlocked(cell)){
+				continue;
+			}
+			int component = components.componentOf(cell);
+			Integer size = sizes.get(component);
+			size = size == null ? 1 : size + 1;
+			sizes.put(component, size);
+			if(size > largestSize){
+				largest = component;
+				largestSize = size;
+			}
+		}
+		boolean[] area = new boolean[grid.size()];
+		for(int cell = 0; cell < grid.size(); cell++){
+			area[cell] = !grid.isBlocked(cell) && components.componentOf(cell) == largest;
+		}
+		return area;
+	}
+
+	/**
+	 * The first four players get the corners, top left and bottom right first so two players
+	 * start as far apart as they can. Any more start at random.
+	 */
+	private int baseCell(int player){
+		int marginX = width / 8;
+		int marginY = height / 8;
+		switch(player){
+		case 0:
+			return grid.cellIndex(marginX, marginY);
+		case 1:
+			return grid.cellIndex(width - 1 - marginX, height - 1 - marginY);
+		case 2:
+			return grid.cellIndex(width - 1 - marginX, marginY);
+		case 3:
+			return grid.cellIndex(marginX, height - 1 - marginY);
+		default:
+			return random.nextInt(grid.size());
+		}
+	}
+
+	/**
+	 * Breadth first out from the base, over walls too, taking the free cells of the area in the
+	 * order they are reached.
+	 */
+	private int[] placeAround(int base, int count, boolean[] area, boolean[] taken){
+		int[] cells = new int[count];
+		int placed = 0;
+		boolean[] visited = new boolean[grid.size()];
+		int[] queue = new int[grid.size()];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = base;
+		visited[base] = true;
+		while(head < tail && placed < count){
+			int cell = queue[head++];
+			if(area[cell] && !taken[cell]){
+				taken[cell] = true;
+				cells[placed++] = cell;
+			}
+			int x = cell % width;
+			int y = cell / width;
+			for(int i = 0; i < SearchContext.DX.length; i++){
+				int nx = x + SearchContext.DX[i];
+				int ny = y + SearchContext.DY[i];
+				if(grid.inBounds(nx, ny) && !visited[grid.cellIndex(nx, ny)]){
+					visited[grid.cellIndex(nx, ny)] = true;
+					queue[tail++] = grid.cellIndex(nx, ny);
+				}
+			}
+		}
+		if(placed < count){
+			throw new IllegalArgumentException("Only " + placed + " of " + count + " units fit in the open area");
+		}
+		return cells;
+	}
+
+	private int[] placeMines(boolean[] area, boolean[] taken){
+		int[] cells = new int[mines];
+		int placed = 0;
+		for(long tries = 0; placed < mines && tries < mines * 1000L; tries++){
+			int cell = random.nextInt(grid.size());
+			if(!area[cell] || taken[cell] || !neighboursOpen(cell)){
+				continue;
+			}
+			grid.blockStatic(cell % width, cell / width);
+			area[cell] = false;
+			cells[placed++] = cell;
+		}
+		if(placed < mines){
+			throw new IllegalArgumentException("Only found room for " + placed + " of " + mines + " mines");
+		}
+		return cells;
+	}
+
+	private boolean neighboursOpen(int cell){
+		int x = cell % width;
+		int y = cell / width;
+		for(int i = 0; i < SearchContext.DX.length; i++){
+			int nx = x + SearchContext.DX[i];
+			int ny = y + SearchContext.DY[i];
+			if(!grid.inBounds(nx, ny) || grid.isBlocked(grid.cellIndex(nx, ny))){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void writeMap(Map<Integer, PlayerTemplates> templates, int nextTemplateID, Map<Integer, int[]> unitCells, int[] mineCells)
+			throws IOException {
+		if(output.getAbsoluteFile().getParentFile() != null){
+			output.getAbsoluteFile().getParentFile().mkdirs();
+		}
+		boolean[] mine = new boolean[grid.size()];
+		for(int cell : mineCells){
+			mine[cell] = true;
+		}
+		Writer out = new BufferedWriter(new FileWriter(output), 1 << 16);
+		try {
+			int nextTargetID = 0;
+			StringBuilder players = new StringBuilder();
+			for(Map.Entry<Integer, PlayerTemplates> player : templates.entrySet()){
+				int id = player.getKey();
+				if(!units.containsKey(id)){
+					continue;
+				}
+				int[] cells = unitCells.get(id);
+				int supply = 0;
+				int supplyCap = 0;
+				players.append("    <player>\n");
+				players.append("        <ID>").append(id).append("</ID>\n");
+				int next = 0;
+				for(Map.Entry<String, Integer> count : units.get(id).entrySet()){
+					UnitType type = player.getValue().units.get(count.getKey());
+					for(int i = 0; i < count.getValue(); i++){
+						int cell = cells[next++];
+						players.append("        <unit>\n");
+						players.append("            <ID>").append(nextTargetID++).append("</ID>\n");
+						players.append("            <currentHealth>").append(type.baseHealth).append("</currentHealth>\n");
+						players.append("            <xPosition>").append(cell % width).append("</xPosition>\n");
+						players.append("            <yPosition>").append(cell / width).append("</yPosition>\n");
+						players.append("            <templateID>").append(type.id).append("</templateID>\n");
+						players.append("            <cargoAmount>0</cargoAmount>\n");
+						players.append("            <progressAmount>0</progressAmount>\n");
+						players.append("        </unit>\n");
+						supply += type.foodCost;
+						supplyCap += type.foodProvided;
+					}
+				}
+				players.append(player.getValue().xml);
+				players.append(resourceAmount(startGold, "GOLD"));
+				players.append(resourceAmount(startWood, "WOOD"));
+				players.append("        <supply>").append(supply).append("</supply>\n");
+				players.append("        <supplyCap>").append(supplyCap).append("</supplyCap>\n");
+				players.append("    </player>\n");
+			}
+
+			int resources = 0;
+			for(int cell = 0; cell < grid.size(); cell++){
+				if(grid.isStaticBlocked(cell)){
+					resources++;
+				}
+			}
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+			out.write("<state xExtent=\"" + width + "\" yExtent=\"" + height + "\" nextTargetID=\"" + (nextTargetID + resources)
+					+ "\" nextTemplateID=\"" + nextTemplateID + "\" fogOfWar=\"false\">\n");
+			out.write(players.toString());
+			for(int cell = 0; cell < grid.size(); cell++){
+				if(!grid.isStaticBlocked(cell)){
+					continue;
+				}
+				out.write("    <resourceNode>\n");
+				out.write("        <ID>" + nextTargetID++ + "</ID>\n");
+				out.write("        <type>" + (mine[cell] ? "GOLD_MINE" : "TREE") + "</type>\n");
+				out.write("        <xPosition>" + cell % width + "</xPosition>\n");
+				out.write("        <yPosition>" + cell / width + "</yPosition>\n");
+				out.write("        <initialAmount>0</initialAmount>\n");
+				out.write("        <amountRemaining>" + (mine[cell] ? mineAmount : treeAmount) + "</amountRemaining>\n");
+				out.write("    </resourceNode>\n");
+			}
+			out.write("</state>\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String resourceAmount(int quantity, String type){
+		return "        <resourceAmount>\n"
+				+ "            <quantity>" + quantity + "</quantity>\n"
+				+ "            <type>" + type + "</type>\n"
+				+ "        </resourceAmount>\n";
+	}
+
+	/**
+	 * Write the configuration for the map, in the layout of the ones in data/.
+	 */
+	private void writeConfig() throws IOException {
+		String name = output.getName();
+		File config = new File(output.getParentFile(), (name.endsWith(".xml") ? name.substring(0, name.length() - 4) : name) + "_config.xml");
+		Writer out = new BufferedWriter(new FileWriter(config));
+		try {
+			out.write("<Configuration>\n");
+			out.write("  <Map>" + output.getPath().replace('\\', '/') + "</Map>\n");
+			for(Object[] agent : agents){
+				String[] classAndArguments = (String[]) agent[1];
+				out.write("  <Player Id=\"" + agent[0] + "\">\n");
+				out.write("    <AgentClass>\n");
+				out.write("      <ClassName>" + classAndArguments[0] + "</ClassName>\n");
+				for(int i = 1; i < classAndArguments.length; i++){
+					out.write("      <Argument>" + classAndArguments[i] + "</Argument>\n");
+				}
+				out.write("    </AgentClass>\n");
+				out.write("  </Player>\n");
+			}
+			out.write("  <ModelParameters>\n");
+			out.write("    <Conquest>" + (requiredGold < 0) + "</Conquest>\n");
+			out.write("    <Midas>" + (requiredGold >= 0) + "</Midas>\n");
+			if(requiredGold >= 0){
+				out.write("    <Requirement Name=\"environment.model.RequiredGold\" Value=\"" + requiredGold + "\"/>\n");
+				out.write("    <Requirement Name=\"environment.model.RequiredWood\" Value=\"" + requiredWood + "\"/>\n");
+			}
+			out.write("    <ManifestDestiny>false</ManifestDestiny>\n");
+			out.write("    <TimeLimit>1000000</TimeLimit>\n");
+			out.write("  </ModelParameters>\n");
+			out.write("  <Runner>\n");
+			out.write("    <RunnerClass>edu.cwru.sepia.experiment.ExampleRunner</RunnerClass>\n");
+			out.write("    <Parameter Name=\"experiment.NumEpisodes\" Value=\"" + episodes + "\"/>\n");
+			out.write("    <Parameter Name=\"experiment.EpisodesPerSave\" Value=\"1\"/>\n");
+			out.write("    <Parameter Name=\"experiment.SaveAgents\" Value=\"false\"/>\n");
+			out.write("    <Parameter Name=\"experiment.episodesperagentsave\" Value=\"4\" />\n");
+			out.write("    <Parameter Name=\"experiment.episodesperreplaysave\" Value=\"4\" />\n");
+			out.write("    <Parameter Name=\"experiment.save.replaydirectory\" Value=\"saves/test1\" />\n");
+			out.write("    <Parameter Name=\"experiment.save.agentdirectory\" Value=\"saves/test1\" />\n");
+			out.write("    <Parameter Name=\"experiment.temp.thing\" Value=\"saves/test1\" />\n");
+			out.write("    <Parameter Name=\"environment.model.class\" Value=\"edu.cwru.sepia.environment.model.SimpleModel\" />\n");
+			out.write("  </Runner>\n");
+			out.write("</Configuration>\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String childText(Element parent, String tag){
+		for(Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()){
+			if(child.getNodeName().equals(tag)){
+				return child.getTextContent().trim();
+			}
+		}
+		return "";
+	}
+
+	private static int childInt(Element parent, String tag){
+		String text = childText(parent, tag);
+		return text.isEmpty() ? 0 : Integer.parseInt(text);
+	}
+}
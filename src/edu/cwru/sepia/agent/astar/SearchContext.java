@@ -0,0 +1,192 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Reusable scratch space for searching one map. Everything a search needs to know about a cell
+ * lives in flat arrays indexed by cell (x + y * xExtent) so a search does not create any objects.
+ *
+ * Rather than clearing the arrays between searches every search gets a new generation number and
+ * a cell only counts as seen or closed if its stamp matches the current generation. Which cells are
+ * blocked comes from the map's ObstacleGrid.
+ * Starting a new search is therefore O(1) no matter how big the map is.
+ */
+public class SearchContext {
+	// Neighbour offsets in the same order as Direction.values()
+	public static final int[] DX = {0, 1, 1, 1, 0, -1, -1, -1};
+	public static final int[] DY = {-1, -1, 0, 1, 1, 1, 0, -1};
+
+	public final int xExtent;
+	public final int yExtent;
+	private final ObstacleGrid grid;
+
+	// cost of the best known path from the start to the cell
+	private final int[] cost;
+	// the cell the best known path came from
+	private final int[] parent;
+	// generation stamps
+	private final int[] seen;
+	private final int[] closed;
+	private int generation;
+	// nodes closed by the current search
+	private int expansions;
+
+	private final OpenList open;
+
+	// the most recently traced path, first move at index 0
+	private final int[] path;
+	private int pathLength;
+
+	public SearchContext(ObstacleGrid grid){
+		this(grid, false);
+	}
+
+	/**
+	 * @param bucketQueue true to keep the open list in a BucketQueue rather than a heap, which
+	 * only works for searches whose keys have small whole number f-costs in the high bits
+	 */
+	public SearchContext(ObstacleGrid grid, boolean bucketQueue){
+		this.grid = grid;
+		this.xExtent = grid.xExtent;
+		this.yExtent = grid.yExtent;
+		int size = xExtent * yExtent;
+		this.cost = new int[size];
+		this.parent = new int[size];
+		this.seen = new int[size];
+		this.closed = new int[size];
+		this.open = bucketQueue ? new BucketQueue(size) : new IndexedMinHeap(size);
+		this.path = new int[size];
+	}
+
+	/**
+	 * Forget everything about the previous search.
+	 */
+	public void beginSearch(){
+		open.clear();
+		pathLength = 0;
+		expansions = 0;
+		generation++;
+		if(generation == Integer.MAX_VALUE){
+			// Only happens after two billion searches but stale stamps would otherwise match again
+			Arrays.fill(seen, 0);
+			Arrays.fill(closed, 0);
+			generation = 1;
+		}
+	}
+
+	public int cellIndex(int x, int y){
+		return x + y * xExtent;
+	}
+
+	public int xOf(int cell){
+		return cell % xExtent;
+	}
+
+	public int yOf(int cell){
+		return cell / xExtent;
+	}
+
+	public boolean inBounds(int x, int y){
+		return x >= 0 && y >= 0 && x < xExtent && y < yExtent;
+	}
+
+	public ObstacleGrid getGrid(){
+		return grid;
+	}
+
+	public boolean isBlocked(int cell){
+		return grid.isBlocked(cell);
+	}
+
+	public OpenList getOpen(){
+		return open;
+	}
+
+	/**
+	 * @return true if the cell has a cost and parent from the current search
+	 */
+	public boolean isSeen(int cell){
+		return seen[cell] == generation;
+	}
+
+	public boolean isClosed(int cell){
+		return closed[cell] == generation;
+	}
+
+	public void close(int cell){
+		closed[cell] = generation;
+		expansions++;
+	}
+
+	/**
+	 * @return the number of cells closed since the search began
+	 */
+	public int getExpansions(){
+		return expansions;
+	}
+
+	public int getCost(int cell){
+		return cost[cell];
+	}
+
+	public int getParent(int cell){
+		return parent[cell];
+	}
+
+	/**
+	 * Record the best known way to reach a cell.
+	 *
+	 * @param parentCell the previous cell or -1 for the start
+	 */
+	public void setCost(int cell, int cellCost, int parentCell){
+		seen[cell] = generation;
+		cost[cell] = cellCost;
+		parent[cell] = parentCell;
+	}
+
+	/**
+	 * Follow the parents back from the goal and store the cells in between in the path buffer
+	 * with the first move first. Neither the start nor the goal is included.
+	 *
+	 * A parent does not have to be adjacent to its child as long as the two are on the same row,
+	 * column or diagonal (as with jump points), the cells in between are filled in.
+	 *
+	 * @return the number of cells in the path
+	 */
+	public int tracePath(int goalCell){
+		int steps = 0;
+		for(int cell = goalCell; parent[cell] != -1; cell = parent[cell]){
+			steps += distance(cell, parent[cell]);
+		}
+		int step = steps;
+		for(int cell = goalCell; parent[cell] != -1; cell = parent[cell]){
+			int from = parent[cell];
+			int length = distance(cell, from);
+			int stepX = Integer.signum(xOf(cell) - xOf(from));
+			int stepY = Integer.signum(yOf(cell) - yOf(from));
+			for(int k = length - 1; k >= 0; k--){
+				step--;
+				if(step > 0){
+					path[step - 1] = cellIndex(xOf(from) + k * stepX, yOf(from) + k * stepY);
+				}
+			}
+		}
+		pathLength = Math.max(steps - 1, 0);
+		return pathLength;
+	}
+
+	/**
+	 * @return the number of moves between two cells on an open 8-connected grid
+	 */
+	public int distance(int cellA, int cellB){
+		return Math.max(Math.abs(xOf(cellA) - xOf(cellB)), Math.abs(yOf(cellA) - yOf(cellB)));
+	}
+
+	public int[] getPath(){
+		return path;
+	}
+
+	public int getPathLength(){
+		return pathLength;
+	}
+}
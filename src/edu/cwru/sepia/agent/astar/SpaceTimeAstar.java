@@ -0,0 +1,294 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * A* over (x, y, t) states so a unit can plan around where other units are going to be rather
+ * than where they are now. Each step moves to one of the eight neighbours or waits in place, and
+ * costs 1 either way. Cells taken in a ReservationTable at a time step can not be entered at that
+ * step, and two units can not swap cells in one step.
+ *
+ * Time is only tracked up to a horizon. States past it all share the last time layer, where only
+ * reservations that last for good still apply, so the search stays a plain grid search once the
+ * predictions run out.
+ *
+ * States are numbered as the search generates them, so memory grows with the search rather than
+ * with the map times the horizon. States before the horizon are found through an open addressing
+ * hash table of (cell, time) pairs, and the last layer through a flat array over the cells.
+ */
+public class SpaceTimeAstar {
+	private static final int WAIT = -1;
+	private static final long EMPTY = -1;
+	private static final int INITIAL_STATES = 256;
+
+	private final ObstacleGrid grid;
+	private final int horizon;
+
+	// indexed by state, in the order the last search generated them
+	private int[] stateCell = new int[INITIAL_STATES];
+	private int[] stateTime = new int[INITIAL_STATES];
+	private int[] cost = new int[INITIAL_STATES];
+	private int[] parent = new int[INITIAL_STATES];
+	private boolean[] closed = new boolean[INITIAL_STATES];
+	private int stateCount;
+	private final IndexedMinHeap open = new IndexedMinHeap(INITIAL_STATES);
+
+	// (cell << 32 | time) keys of the states before the horizon, EMPTY for a free slot
+	private long[] windowKeys = new long[2 * INITIAL_STATES];
+	private int[] windowStates = new int[2 * INITIAL_STATES];
+	// cell -> its state in the last layer, valid when the stamp is the current generation
+	private final int[] lastState;
+	private final int[] lastStamp;
+	private int generation;
+
+	private int[] path = new int[INITIAL_STATES];
+	private int pathLength;
+	private int expansions;
+
+	/**
+	 * @param horizon the number of time steps reservations are looked at individually
+	 */
+	public SpaceTimeAstar(ObstacleGrid grid, int horizon){
+		this.grid = grid;
+		this.horizon = horizon;
+		this.lastState = new int[grid.size()];
+		this.lastStamp = new int[grid.size()];
+		Arrays.fill(windowKeys, EMPTY);
+	}
+
+	public int getHorizon(){
+		return horizon;
+	}
+
+	/**
+	 * Search from the start at time 0 to the goal. Only the static layer of the grid is used,
+	 * everything that moves is expected to be in the reservation table. On success the path is
+	 * available from getPath/getPathLength with the cell for each time step from 1 on, so a
+	 * wait shows up as the same cell twice in a row. Neither the start nor the goal is included.
+	 *
+	 * @return true if the goal can be reached from the start
+	 */
+	public boolean search(int start, int goal, ReservationTable reservations){
+		return search(start, goal, reservations, null);
+	}
+
+	/**
+	 * Same as search but guided by the true distances to the goal on the static map, which is the
+	 * abstract search of hierarchical cooperative A*. Far fewer states get expanded on maps where
+	 * the straight line distance is a poor guess.
+	 *
+	 * @param trueDistance a field built for the goal on the static layer, or null for the straight
+	 * line distance
+	 */
+	public boolean search(int start, int goal, ReservationTable reservations, DistanceField trueDistance){
+		expansions = 0;
+		pathLength = 0;
+		generation++;
+		if(generation == Integer.MAX_VALUE){
+			generation = 1;
+			Arrays.fill(lastStamp, 0);
+		}
+		if(stateCount > 0){
+			Arrays.fill(windowKeys, EMPTY);
+			stateCount = 0;
+		}
+		open.clear();
+
+		int startState = addState(start, 0);
+		setCost(startState, 0, -1);
+		open.add(startState, priority(0, estimate(start, goal, trueDistance)));
+
+		while(!open.isEmpty()){
+			int current = open.poll();
+			int cell = stateCell[current];
+			if(cell == goal){
+				tracePath(current);
+				return true;
+			}
+			closed[current] = true;
+			expansions++;
+
+			int time = stateTime[current];
+			int nextTime = Math.min(time + 1, horizon);
+			int nextCost = cost[current] + 1;
+			int x = cell % grid.xExtent;
+			int y = cell / grid.xExtent;
+			for(int d = WAIT; d < SearchContext.DX.length; d++){
+				int next = cell;
+				if(d != WAIT){
+					int nx = x + SearchContext.DX[d];
+					int ny = y + SearchContext.DY[d];
+					if(!grid.inBounds(nx, ny)){
+						continue;
+					}
+					next = grid.cellIndex(nx, ny);
+					if(grid.isStaticBlocked(next)){
+						continue;
+					}
+					// Swapping places with a unit coming the other way
+					if(reservations.isReserved(next, time) && reservations.isReserved(cell, nextTime)){
+						continue;
+					}
+				}
+				if(reservations.isReserved(next, nextTime)){
+					continue;
+				}
+				int nextState = findState(next, nextTime);
+				if(nextState != -1 && closed[nextState]){
+					continue;
+				}
+				int estimate = estimate(next, goal, trueDistance);
+				if(estimate >= DistanceField.UNREACHABLE){
+					continue;
+				}
+				if(nextState == -1){
+					nextState = addState(next, nextTime);
+				} else if(nextCost >= cost[nextState]){
+					continue;
+				}
+				setCost(nextState, nextCost, current);
+				open.update(nextState, priority(nextCost, estimate));
+			}
+		}
+		return false;
+	}
+
+	public int[] getPath(){
+		return path;
+	}
+
+	public int getPathLength(){
+		return pathLength;
+	}
+
+	/**
+	 * @return the number of states expanded by the last search
+	 */
+	public int getExpansions(){
+		return expansions;
+	}
+
+	/**
+	 * @return the open list, whose counts cover every search this planner has run
+	 */
+	public OpenList getOpen(){
+		return open;
+	}
+
+	private void tracePath(int goalState){
+		int length = 0;
+		for(int state = parent[goalState]; state != -1 && parent[state] != -1; state = parent[state]){
+			length++;
+		}
+		if(length > path.length){
+			path = new int[Math.max(length, path.length * 2)];
+		}
+		for(int state = parent[goalState]; state != -1 && parent[state] != -1; state = parent[state]){
+			path[pathLength++] = stateCell[state];
+		}
+		// The parents go from the goal back to the start so flip them
+		for(int i = 0, j = pathLength - 1; i < j; i++, j--){
+			int swap = path[i];
+			path[i] = path[j];
+			path[j] = swap;
+		}
+	}
+
+	private void setCost(int state, int stateCost, int parentState){
+		cost[state] = stateCost;
+		parent[state] = parentState;
+	}
+
+	/**
+	 * @return the state the last search generated for the cell at the time step, -1 if none
+	 */
+	private int findState(int cell, int time){
+		if(time == horizon){
+			return lastStamp[cell] == generation ? lastState[cell] : -1;
+		}
+		long key = key(cell, time);
+		int mask = windowKeys.length - 1;
+		for(int slot = slot(key, windowKeys.length); windowKeys[slot] != EMPTY; slot = (slot + 1) & mask){
+			if(windowKeys[slot] == key){
+				return windowStates[slot];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Number a state that findState did not find.
+	 */
+	private int addState(int cell, int time){
+		if(stateCount == stateCell.length){
+			int grown = stateCount * 2;
+			stateCell = Arrays.copyOf(stateCell, grown);
+			stateTime = Arrays.copyOf(stateTime, grown);
+			cost = Arrays.copyOf(cost, grown);
+			parent = Arrays.copyOf(parent, grown);
+			closed = Arrays.copyOf(closed, grown);
+			open.ensureCapacity(grown);
+		}
+		int state = stateCount++;
+		stateCell[state] = cell;
+		stateTime[state] = time;
+		closed[state] = false;
+		if(time == horizon){
+			lastState[cell] = state;
+			lastStamp[cell] = generation;
+		} else {
+			// Every state may be in the window, so the table stays at most half full
+			if(stateCount * 2 > windowKeys.length){
+				growWindow();
+			}
+			insert(windowKeys, windowStates, key(cell, time), state);
+		}
+		return state;
+	}
+
+	private void growWindow(){
+		long[] keys = new long[windowKeys.length * 2];
+		int[] states = new int[keys.length];
+		Arrays.fill(keys, EMPTY);
+		for(int slot = 0; slot < windowKeys.length; slot++){
+			if(windowKeys[slot] != EMPTY){
+				insert(keys, states, windowKeys[slot], windowStates[slot]);
+			}
+		}
+		windowKeys = keys;
+		windowStates = states;
+	}
+
+	private static void insert(long[] keys, int[] states, long key, int state){
+		int slot = slot(key, keys.length);
+		while(keys[slot] != EMPTY){
+			slot = (slot + 1) & (keys.length - 1);
+		}
+		keys[slot] = key;
+		states[slot] = state;
+	}
+
+	private static long key(int cell, int time){
+		return ((long) cell << 32) | time;
+	}
+
+	private static int slot(long key, int length){
+		long mixed = key * 0x9E3779B97F4A7C15L;
+		return (int) (mixed >>> 32) & (length - 1);
+	}
+
+	/**
+	 * Lowest estimated total first with ties going to the state that has come further.
+	 */
+	private long priority(int stateCost, int heuristic){
+		return ((long) (stateCost + heuristic) << 32) - stateCost;
+	}
+
+	private int estimate(int cell, int goal, DistanceField trueDistance){
+		return trueDistance == null ? distance(cell, goal) : trueDistance.getDistance(cell);
+	}
+
+	private int distance(int cellA, int cellB){
+		return Math.max(Math.abs(cellA % grid.xExtent - cellB % grid.xExtent), Math.abs(cellA / grid.xExtent - cellB / grid.xExtent));
+	}
+}
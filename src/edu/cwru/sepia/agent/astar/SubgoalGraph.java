@@ -0,0 +1,514 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A simple subgoal graph (Uras, Koenig and Hernandez) over the static layer of an ObstacleGrid.
+ *
+ * Shortest paths on a grid only have to turn at the corners of obstacles, so those corners are the
+ * subgoals (see isCorner). A cell is h-reachable from another when the moves between them equal the straight line (Chebyshev)
+ * distance, and two subgoals get an edge of that length when one is h-reachable from the other
+ * without going through a third. A query links the start and goal to the subgoals directly
+ * h-reachable from them, runs A* over the much smaller graph and walks each edge of the result out
+ * into steps.
+ *
+ * The graph only depends on the static layer so it is cached in memory and on disk under the
+ * fingerprint of the map, like the landmark tables. Every instance has its own scratch space for
+ * queries, the graph itself is shared.
+ */
+public class SubgoalGraph {
+	// Marks a cache file so an unrelated file with the same name is not read as a graph
+	private static final int FILE_MAGIC = 0x53554247;
+
+	private static final Map<String, SubgoalGraph> MEMORY_CACHE = new HashMap<String, SubgoalGraph>();
+
+	// a copy of the static layer the graph was built for
+	private final ObstacleGrid grid;
+	// subgoal -> cell
+	private final int[] subgoals;
+	// cell -> subgoal or -1
+	private final int[] subgoalIndex;
+	// the neighbours of subgoal i are edgeTargets[edgeOffsets[i]] up to edgeTargets[edgeOffsets[i + 1]]
+	private final int[] edgeOffsets;
+	private final int[] edgeTargets;
+
+	// scratch for the direct h-reachable scans and refining edges, indexed by cell
+	private final int[] scanDistance;
+	private final int[] scanParent;
+	private final int[] scanStamp;
+	private final int[] queue;
+	private int scanGeneration;
+	// what a scan found, every subgoal plus the target at most
+	private final int[] found;
+	// scratch for the graph search, indexed by subgoal with the start and goal after the subgoals
+	private final int[] cost;
+	private final int[] parent;
+	private final int[] seenStamp;
+	private final int[] closedStamp;
+	// subgoal -> moves to the goal when the goal is directly h-reachable from it, this query only
+	private final int[] goalLink;
+	private final int[] goalLinkStamp;
+	private int searchGeneration;
+	private final IndexedMinHeap open;
+
+	private final int[] path;
+	private int pathLength;
+	private int expansions;
+
+	private SubgoalGraph(ObstacleGrid grid, int[] subgoals, int[] edgeOffsets, int[] edgeTargets){
+		this.grid = grid;
+		this.subgoals = subgoals;
+		this.edgeOffsets = edgeOffsets;
+		this.edgeTargets = edgeTargets;
+		this.subgoalIndex = new int[grid.size()];
+		Arrays.fill(subgoalIndex, -1);
+		for(int i = 0; i < subgoals.length; i++){
+			subgoalIndex[subgoals[i]] = i;
+		}
+
+		int size = grid.size();
+		this.scanDistance = new int[size];
+		this.scanParent = new int[size];
+		this.scanStamp = new int[size];
+		this.queue = new int[size];
+		this.found = new int[subgoals.length + 1];
+		int nodes = subgoals.length + 2;
+		this.cost = new int[nodes];
+		this.parent = new int[nodes];
+		this.seenStamp = new int[nodes];
+		this.closedStamp = new int[nodes];
+		this.goalLink = new int[subgoals.length];
+		this.goalLinkStamp = new int[subgoals.length];
+		this.open = new IndexedMinHeap(nodes);
+		this.path = new int[size];
+	}
+
+	/**
+	 * A graph sharing the other's subgoals and edges with scratch space of its own.
+	 */
+	private SubgoalGraph(SubgoalGraph other){
+		this(other.grid, other.subgoals, other.edgeOffsets, other.edgeTargets);
+	}
+
+	/**
+	 * Get the graph for the map from memory, then from the cache directory, and only build it if
+	 * neither has it. A freshly built graph is written to the cache directory.
+	 *
+	 * @param cacheDirectory where graph files are kept, or null to only cache in memory
+	 */
+	public static synchronized SubgoalGraph forGrid(ObstacleGrid grid, File cacheDirectory){
+		String key = Long.toHexString(grid.staticFingerprint());
+		SubgoalGraph graph = MEMORY_CACHE.get(key);
+		if(graph != null){
+			return new SubgoalGraph(graph);
+		}
+
+		File cacheFile = cacheDirectory == null ? null : new File(cacheDirectory, key + ".sg");
+		if(cacheFile != null && cacheFile.exists()){
+			try {
+				graph = read(cacheFile, grid);
+			} catch (IOException e) {
+				System.err.println("Failed to read subgoal graph from " + cacheFile + ". Reason: " + e.getMessage());
+			}
+		}
+		if(graph == null){
+			graph = build(grid);
+			if(cacheFile != null){
+				try {
+					graph.write(cacheFile);
+				} catch (IOException e) {
+					System.err.println("Failed to write subgoal graph to " + cacheFile + ". Reason: " + e.getMessage());
+				}
+			}
+		}
+		MEMORY_CACHE.put(key, graph);
+		return new SubgoalGraph(graph);
+	}
+
+	/**
+	 * Place a subgoal at every obstacle corner and connect each one to the subgoals directly
+	 * h-reachable from it.
+	 */
+	public static SubgoalGraph build(ObstacleGrid grid){
+		ObstacleGrid staticGrid = new ObstacleGrid(grid);
+		int[] corners = new int[staticGrid.size()];
+		int count = 0;
+		for(int cell = 0; cell < staticGrid.size(); cell++){
+			if(isCorner(staticGrid, cell)){
+				corners[count++] = cell;
+			}
+		}
+		SubgoalGraph scanner = new SubgoalGraph(staticGrid, Arrays.copyOf(corners, count), new int[count + 1], new int[0]);
+
+		// Every edge both ways as from << 32 | to, sorted so each subgoal's edges end up together
+		long[] edges = new long[16];
+		int edgeCount = 0;
+		int[] found = scanner.found;
+		for(int from = 0; from < count; from++){
+			int reached = scanner.scanDirect(corners[from], -1, found);
+			for(int i = 0; i < reached; i++){
+				int to = scanner.subgoalIndex[found[i]];
+				if(to == from){
+					continue;
+				}
+				if(edgeCount + 2 > edges.length){
+					edges = Arrays.copyOf(edges, edges.length * 2);
+				}
+				edges[edgeCount++] = (long) from << 32 | to;
+				edges[edgeCount++] = (long) to << 32 | from;
+			}
+		}
+		Arrays.sort(edges, 0, edgeCount);
+
+		int[] offsets = new int[count + 1];
+		int[] targets = new int[edgeCount];
+		int unique = 0;
+		for(int i = 0; i < edgeCount; i++){
+			if(i > 0 && edges[i] == edges[i - 1]){
+				continue;
+			}
+			offsets[(int) (edges[i] >>> 32) + 1]++;
+			targets[unique++] = (int) edges[i];
+		}
+		for(int i = 0; i < count; i++){
+			offsets[i + 1] += offsets[i];
+		}
+		return new SubgoalGraph(staticGrid, scanner.subgoals, offsets, Arrays.copyOf(targets, unique));
+	}
+
+	public int getSubgoalCount(){
+		return subgoals.length;
+	}
+
+	/**
+	 * @return the number of edges, each counted once
+	 */
+	public int getEdgeCount(){
+		return edgeTargets.length / 2;
+	}
+
+	/**
+	 * Find a shortest path from the start to the goal over the static layer. On success the path
+	 * is available from getPath/getPathLength with the first move first and neither the start nor
+	 * the goal included.
+	 *
+	 * @return true if the goal can be reached
+	 */
+	public boolean search(int start, int goal){
+		pathLength = 0;
+		expansions = 0;
+		if(grid.isStaticBlocked(start) || grid.isStaticBlocked(goal)){
+			return false;
+		}
+		searchGeneration++;
+		open.clear();
+		int startNode = subgoals.length;
+		int goalNode = subgoals.length + 1;
+
+		int reached = scanDirect(goal, -1, found);
+		for(int i = 0; i < reached; i++){
+			int subgoal = subgoalIndex[found[i]];
+			goalLink[subgoal] = scanDistance[found[i]];
+			goalLinkStamp[subgoal] = searchGeneration;
+		}
+
+		setCost(startNode, 0, -1);
+		open.add(startNode, priority(0, distance(start, goal)));
+		while(!open.isEmpty()){
+			int current = open.poll();
+			if(current == goalNode){
+				tracePath(start, goal);
+				return true;
+			}
+			closedStamp[current] = searchGeneration;
+			expansions++;
+
+			if(current == startNode){
+				// The start is linked to what a scan from it reaches, the goal included
+				reached = scanDirect(start, goal, found);
+				for(int i = 0; i < reached; i++){
+					int node = found[i] == goal ? goalNode : subgoalIndex[found[i]];
+					relax(node, scanDistance[found[i]], current, goal);
+				}
+				continue;
+			}
+			for(int e = edgeOffsets[current]; e < edgeOffsets[current + 1]; e++){
+				int next = edgeTargets[e];
+				relax(next, distance(subgoals[current], subgoals[next]), current, goal);
+			}
+			if(goalLinkStamp[current] == searchGeneration){
+				relax(goalNode, goalLink[current], current, goal);
+			}
+		}
+		return false;
+	}
+
+	public int[] getPath(){
+		return path;
+	}
+
+	public int getPathLength(){
+		return pathLength;
+	}
+
+	/**
+	 * @return the number of graph nodes expanded by the last search
+	 */
+	public int getExpansions(){
+		return expansions;
+	}
+
+	/**
+	 * @return the open list, whose counts cover every search this planner has run
+	 */
+	public OpenList getOpen(){
+		return open;
+	}
+
+	private void relax(int node, int edgeCost, int from, int goal){
+		if(closedStamp[node] == searchGeneration){
+			return;
+		}
+		int nextCost = cost[from] + edgeCost;
+		if(seenStamp[node] != searchGeneration || nextCost < cost[node]){
+			setCost(node, nextCost, from);
+			int heuristic = node >= subgoals.length ? 0 : distance(subgoals[node], goal);
+			open.update(node, priority(nextCost, heuristic));
+		}
+	}
+
+	private void setCost(int node, int nodeCost, int parentNode){
+		seenStamp[node] = searchGeneration;
+		cost[node] = nodeCost;
+		parent[node] = parentNode;
+	}
+
+	/**
+	 * Walk every edge from the goal back to the start out into cells and lay them out first move
+	 * first.
+	 */
+	private void tracePath(int start, int goal){
+		int startNode = subgoals.length;
+		int goalNode = subgoals.length + 1;
+		// The edges come out goal first, each one's cells back to front, so the whole path is flipped at the end
+		int to = goal;
+		for(int node = parent[goalNode]; ; node = parent[node]){
+			int from = node == startNode ? start : subgoals[node];
+			refine(from, to);
+			if(node == startNode){
+				break;
+			}
+			to = from;
+		}
+		if(pathLength > 0){
+			// Drop the goal, which is the first cell written
+			System.arraycopy(path, 1, path, 0, pathLength - 1);
+			pathLength--;
+		}
+		for(int i = 0, j = pathLength - 1; i < j; i++, j--){
+			int swap = path[i];
+			path[i] = path[j];
+			path[j] = swap;
+		}
+	}
+
+	/**
+	 * Append the cells of a shortest path from the cell to the other one, which has to be
+	 * h-reachable from it, back to front: the other cell first and the cell itself left out.
+	 */
+	private void refine(int from, int to){
+		if(from == to){
+			return;
+		}
+		int length = distance(from, to);
+		nextScan();
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = from;
+		scanStamp[from] = scanGeneration;
+		scanDistance[from] = 0;
+		scanParent[from] = -1;
+		while(head < tail && scanStamp[to] != scanGeneration){
+			int current = queue[head++];
+			int x = current % grid.xExtent;
+			int y = current / grid.xExtent;
+			for(int d = 0; d < SearchContext.DX.length; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(!grid.inBounds(nx, ny)){
+					continue;
+				}
+				int next = grid.cellIndex(nx, ny);
+				int nextDistance = scanDistance[current] + 1;
+				// Only cells on some shortest path between the two
+				if(scanStamp[next] == scanGeneration || grid.isStaticBlocked(next)
+						|| nextDistance != distance(from, next) || nextDistance + distance(next, to) != length){
+					continue;
+				}
+				scanStamp[next] = scanGeneration;
+				scanDistance[next] = nextDistance;
+				scanParent[next] = current;
+				queue[tail++] = next;
+			}
+		}
+		for(int cell = to; cell != from; cell = scanParent[cell]){
+			path[pathLength++] = cell;
+		}
+	}
+
+	/**
+	 * Breadth first search from the source over the cells h-reachable from it, without going on
+	 * past subgoals or the target. The distances of what it finds are left in scanDistance.
+	 *
+	 * @param target a cell that is not a subgoal to report as well if it is found, or -1
+	 * @return the number of subgoals (and the target) found, written to found. The source is
+	 * included when it is a subgoal.
+	 */
+	private int scanDirect(int source, int target, int[] found){
+		nextScan();
+		int count = 0;
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = source;
+		scanStamp[source] = scanGeneration;
+		scanDistance[source] = 0;
+		if(subgoalIndex[source] != -1 || source == target){
+			found[count++] = source;
+		}
+		while(head < tail){
+			int current = queue[head++];
+			int x = current % grid.xExtent;
+			int y = current / grid.xExtent;
+			for(int d = 0; d < SearchContext.DX.length; d++){
+				int nx = x + SearchContext.DX[d];
+				int ny = y + SearchContext.DY[d];
+				if(!grid.inBounds(nx, ny)){
+					continue;
+				}
+				int next = grid.cellIndex(nx, ny);
+				int nextDistance = scanDistance[current] + 1;
+				if(scanStamp[next] == scanGeneration || grid.isStaticBlocked(next) || nextDistance != distance(source, next)){
+					continue;
+				}
+				scanStamp[next] = scanGeneration;
+				scanDistance[next] = nextDistance;
+				if(subgoalIndex[next] != -1 || next == target){
+					found[count++] = next;
+				} else {
+					queue[tail++] = next;
+				}
+			}
+		}
+		return count;
+	}
+
+	private void nextScan(){
+		scanGeneration++;
+		if(scanGeneration == Integer.MAX_VALUE){
+			scanGeneration = 1;
+			Arrays.fill(scanStamp, 0);
+		}
+	}
+
+	/**
+	 * @return true if paths may have to turn on the cell to get around a blocked neighbour. That is
+	 * a blocked diagonal neighbour whose two shared neighbours are open, or, since diagonal moves
+	 * cost the same as straight ones and may cut corners, a blocked neighbour beside it with an open
+	 * cell on either side, like the end of a wall.
+	 */
+	private static boolean isCorner(ObstacleGrid grid, int cell){
+		if(grid.isStaticBlocked(cell)){
+			return false;
+		}
+		int x = cell % grid.xExtent;
+		int y = cell / grid.xExtent;
+		for(int dx = -1; dx <= 1; dx++){
+			for(int dy = -1; dy <= 1; dy++){
+				if((dx == 0 && dy == 0) || !grid.inBounds(x + dx, y + dy) || !grid.isStaticBlocked(grid.cellIndex(x + dx, y + dy))){
+					continue;
+				}
+				if(dx != 0 && dy != 0){
+					if(isOpen(grid, x + dx, y) && isOpen(grid, x, y + dy)){
+						return true;
+					}
+				} else if(isOpen(grid, x + dx + dy, y + dy + dx) || isOpen(grid, x + dx - dy, y + dy - dx)){
+					// (dy, dx) is at right angles to (dx, dy) so these are the cells either side of the blocked one
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isOpen(ObstacleGrid grid, int x, int y){
+		return grid.inBounds(x, y) && !grid.isStaticBlocked(grid.cellIndex(x, y));
+	}
+
+	private int distance(int cellA, int cellB){
+		return Math.max(Math.abs(cellA % grid.xExtent - cellB % grid.xExtent), Math.abs(cellA / grid.xExtent - cellB / grid.xExtent));
+	}
+
+	/**
+	 * Lowest estimated total first with ties going to the node that has come further.
+	 */
+	private static long priority(int nodeCost, int heuristic){
+		return ((long) (nodeCost + heuristic) << 32) - nodeCost;
+	}
+
+	private void write(File file) throws IOException {
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(grid.xExtent);
+			out.writeInt(grid.yExtent);
+			out.writeInt(subgoals.length);
+			for(int subgoal : subgoals){
+				out.writeInt(subgoal);
+			}
+			for(int offset : edgeOffsets){
+				out.writeInt(offset);
+			}
+			for(int target : edgeTargets){
+				out.writeInt(target);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static SubgoalGraph read(File file, ObstacleGrid grid) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt() != FILE_MAGIC || in.readInt() != grid.xExtent || in.readInt() != grid.yExtent){
+				throw new IOException("not a subgoal graph for this map");
+			}
+			int count = in.readInt();
+			int[] subgoals = new int[count];
+			for(int i = 0; i < count; i++){
+				subgoals[i] = in.readInt();
+			}
+			int[] offsets = new int[count + 1];
+			for(int i = 0; i <= count; i++){
+				offsets[i] = in.readInt();
+			}
+			int[] targets = new int[offsets[count]];
+			for(int i = 0; i < targets.length; i++){
+				targets[i] = in.readInt();
+			}
+			return new SubgoalGraph(new ObstacleGrid(grid), subgoals, offsets, targets);
+		} finally {
+			in.close();
+		}
+	}
+}